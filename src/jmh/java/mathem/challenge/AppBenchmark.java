@@ -0,0 +1,51 @@
+package mathem.challenge;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import mathem.challenge.BenchmarkFixtures.Mix;
+
+/**
+ * Benchmarks of the computation of the possible delivery days of a cart
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AppBenchmark {
+    @Param({ "1", "50", "200" })
+    private int cartSize;
+
+    @Param({ "FLEXIBLE", "MIXED", "CONSTRAINED" })
+    private Mix mix;
+
+    private List<Product> cart;
+
+    @Setup
+    public void setUp() {
+        cart = BenchmarkFixtures.cart(cartSize, mix);
+    }
+
+    @Benchmark
+    public void possibleDays(Blackhole blackhole) {
+        for (Product product : cart) {
+            blackhole.consume(App.possibleDays(product,
+                BenchmarkFixtures.CALENDAR));
+        }
+    }
+}
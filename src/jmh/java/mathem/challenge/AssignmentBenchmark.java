@@ -0,0 +1,84 @@
+package mathem.challenge;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mathem.challenge.BenchmarkFixtures.Mix;
+
+/**
+ * A wave of products spread over the depots, booked by the greedy
+ * scheduleDeliveries or by the maximum flow of assignDeliveries on each
+ * depot. Each invocation starts from empty depots, the number of products
+ * delivered being returned so that the two can be compared.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AssignmentBenchmark {
+    @Param({ "1000", "100000" })
+    private int waveSize;
+
+    @Param({ "1", "8" })
+    private int depots;
+
+    private List<List<Product>> waves;
+    private DeliveryService[] services;
+
+    @Setup(Level.Trial)
+    public void setUpWave() {
+        List<Product> wave = BenchmarkFixtures.cart(waveSize, Mix.MIXED);
+        waves = new ArrayList<List<Product>>();
+        for (int i = 0; i < depots; i++) {
+            waves.add(new ArrayList<Product>());
+        }
+        for (int i = 0; i < wave.size(); i++) {
+            waves.get(i % depots).add(wave.get(i));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpDepots() {
+        DepotRouter router = new DepotRouter(BenchmarkFixtures.CALENDAR);
+        services = new DeliveryService[depots];
+        for (int i = 0; i < depots; i++) {
+            services[i] = router.shard("depot" + i);
+        }
+    }
+
+    @Benchmark
+    public int greedy() {
+        int delivered = 0;
+        for (int i = 0; i < depots; i++) {
+            services[i].scheduleDeliveries(waves.get(i));
+            delivered += services[i].countDeliveries();
+        }
+        return delivered;
+    }
+
+    @Benchmark
+    public int assign() {
+        int delivered = 0;
+        for (int i = 0; i < depots; i++) {
+            services[i].assignDeliveries(waves.get(i));
+            delivered += services[i].countDeliveries();
+        }
+        return delivered;
+    }
+}
@@ -0,0 +1,83 @@
+package mathem.challenge;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the queries on the available days of a product while one
+ * thread keeps booking and cancelling, with 7 reading threads. The snapshot
+ * group answers from the AvailabilitySnapshot of the service, the probe
+ * group from the store by looking for a free slot on each possible day.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class AvailabilityBenchmark {
+    private DeliveryService service;
+    private Product product;
+    private UUID productId;
+    private List<LocalDate> days;
+
+    @Setup
+    public void setUp() {
+        service = new DeliveryService(BenchmarkFixtures.CALENDAR, 64);
+        product = BenchmarkFixtures.cart(1, BenchmarkFixtures.Mix.FLEXIBLE)
+        .iterator().next();
+        productId = product.getProductId();
+        days = App.possibleDays(product, BenchmarkFixtures.CALENDAR);
+    }
+
+    @Benchmark
+    @Group("snapshot")
+    @GroupThreads(7)
+    public List<LocalDate> snapshotQuery() {
+        return service.availableDays(product);
+    }
+
+    @Benchmark
+    @Group("snapshot")
+    @GroupThreads(1)
+    public boolean snapshotWrite() {
+        return service.scheduleDelivery(days, product)
+            && service.cancel(productId);
+    }
+
+    @Benchmark
+    @Group("probe")
+    @GroupThreads(7)
+    public List<LocalDate> probeQuery() {
+        List<LocalDate> available = new ArrayList<LocalDate>(days.size());
+        for (LocalDate day : days) {
+            if (service.nextSlot(day).isPresent())
+                available.add(day);
+        }
+        return available;
+    }
+
+    @Benchmark
+    @Group("probe")
+    @GroupThreads(1)
+    public boolean probeWrite() {
+        return service.scheduleDelivery(days, product)
+            && service.cancel(productId);
+    }
+}
@@ -0,0 +1,110 @@
+package mathem.challenge;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of carts of one product scheduled by 8 threads, each waiting
+ * for its cart, directly with DeliveryService.scheduleDeliveries or through
+ * a BatchingScheduler waiting up to maxDelayMicros for more carts. The
+ * service is replaced once its period is full, by the thread finding it
+ * full.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class BatchingBenchmark {
+    private static final int SLOT_CAPACITY = 64;
+
+    @State(Scope.Benchmark)
+    public static class Direct {
+        private final AtomicReference<DeliveryService> service =
+        new AtomicReference<DeliveryService>();
+        private List<Product> cart;
+
+        @Setup
+        public void setUp() {
+            service.set(new DeliveryService(BenchmarkFixtures.CALENDAR,
+                SLOT_CAPACITY));
+            cart = Collections.singletonList(BenchmarkFixtures.cart(1,
+                BenchmarkFixtures.Mix.FLEXIBLE).iterator().next());
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Batched {
+        @Param({ "0", "100" })
+        private long maxDelayMicros;
+
+        private final AtomicReference<BatchingScheduler> scheduler =
+        new AtomicReference<BatchingScheduler>();
+        private List<Product> cart;
+
+        @Setup
+        public void setUp() {
+            scheduler.set(newScheduler());
+            cart = Collections.singletonList(BenchmarkFixtures.cart(1,
+                BenchmarkFixtures.Mix.FLEXIBLE).iterator().next());
+        }
+
+        private BatchingScheduler newScheduler() {
+            return new BatchingScheduler(new DeliveryService(
+                BenchmarkFixtures.CALENDAR, SLOT_CAPACITY), 64,
+            Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(maxDelayMicros)));
+        }
+
+        @TearDown
+        public void tearDown() {
+            scheduler.get().close();
+        }
+    }
+
+    @Benchmark
+    public boolean direct(Direct state) {
+        DeliveryService current = state.service.get();
+        if (current.scheduleDeliveries(state.cart)[0])
+            return true;
+        state.service.compareAndSet(current, new DeliveryService(
+            BenchmarkFixtures.CALENDAR, SLOT_CAPACITY));
+        return false;
+    }
+
+    @Benchmark
+    public boolean batched(Batched state) {
+        BatchingScheduler current = state.scheduler.get();
+        try {
+            if (current.scheduleDeliveries(state.cart).join()[0])
+                return true;
+        } catch (CompletionException e) {
+            // Closed when replaced by another thread
+            return false;
+        }
+        BatchingScheduler next = state.newScheduler();
+        if (state.scheduler.compareAndSet(current, next))
+            current.close();
+        else
+            next.close();
+        return false;
+    }
+}
@@ -0,0 +1,97 @@
+package mathem.challenge;
+
+import java.time.Clock;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import mathem.challenge.Product.ProductType;
+
+/**
+ * Schedules and carts shared by the benchmarks
+ */
+public final class BenchmarkFixtures {
+    static final int FIRST_DELIVERY_SLOT = 9;
+    static final int LAST_DELIVERY_SLOT = 19;
+    // A fixed Monday morning so that runs are comparable
+    static final DeliveryCalendar CALENDAR = new DeliveryCalendar(Clock.fixed(
+        Instant.parse("2020-05-11T06:00:00Z"), ZoneId.of("Europe/Stockholm")));
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * How much of the delivery period is booked before the benchmark runs
+     */
+    public enum Fill {
+        EMPTY(0), HALF(6), FULL(11);
+
+        private final int slotsPerDay;
+
+        Fill(int slotsPerDay) {
+            this.slotsPerDay = slotsPerDay;
+        }
+    }
+
+    /**
+     * The constraints of the products of a cart
+     */
+    public enum Mix {
+        // Deliverable any day, without lead time
+        FLEXIBLE,
+        // A mix of weekday constraints and lead times across the period
+        MIXED,
+        // Two weekdays and a long lead time, leaving few candidate days
+        CONSTRAINED
+    }
+
+    /**
+     * Returns a DeliveryService with the given share of the slots of the
+     * bookable days of the delivery period of the fixed CALENDAR already
+     * taken
+     * @param fill - how much of the period to book
+     * @return the filled DeliveryService
+     */
+    static DeliveryService service(Fill fill) {
+        DeliveryService service = new DeliveryService(CALENDAR);
+        for (int i = 1; i < DeliveryService.PERIOD_LENGTH; i++) {
+            LocalDate day = CALENDAR.today().plusDays(i);
+            for (int j = 0; j < fill.slotsPerDay; j++) {
+                service.addSlot(day.atTime(FIRST_DELIVERY_SLOT + j, 0));
+            }
+        }
+        return service;
+    }
+
+    /**
+     * Returns a cart of valid products with the given constraints
+     * @param size - the number of products of the cart
+     * @param mix - the constraints of the products
+     * @return the list of products
+     */
+    static List<Product> cart(int size, Mix mix) {
+        List<Product> products = new ArrayList<Product>(size);
+        for (int i = 0; i < size; i++) {
+            String name = "P" + i;
+            switch (mix) {
+            case FLEXIBLE:
+                products.add(Product.create(name));
+                break;
+            case MIXED:
+                products.add(Product.create(name, ProductType.NORMAL,
+                    EnumSet.of(DayOfWeek.of(1 + i % 7),
+                    DayOfWeek.of(1 + (i + 3) % 7)), i % 10));
+                break;
+            case CONSTRAINED:
+                products.add(Product.create(name, ProductType.EXTERNAL,
+                    EnumSet.of(DayOfWeek.TUESDAY, DayOfWeek.THURSDAY), 8));
+                break;
+            }
+        }
+        return products;
+    }
+}
@@ -0,0 +1,70 @@
+package mathem.challenge;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of a checkout traffic mixing bookings with cancellations and
+ * moves of the bookings of a catalog of products, with 8 threads. A share
+ * cancelPercent of the operations cancels a booking of a random product and
+ * as many move one, the others book one. With 0 only bookings are made,
+ * until the period is full.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class CancelBenchmark {
+    private static final int PRODUCTS = 1000;
+
+    @Param({ "0", "25", "45" })
+    private int cancelPercent;
+
+    private DeliveryService service;
+    private List<LocalDate> days;
+    private Product[] products;
+    private UUID[] productIds;
+
+    @Setup
+    public void setUp() {
+        service = new DeliveryService(BenchmarkFixtures.CALENDAR, 64);
+        products = BenchmarkFixtures.cart(PRODUCTS, BenchmarkFixtures.Mix
+        .FLEXIBLE).toArray(new Product[0]);
+        days = App.possibleDays(products[0], BenchmarkFixtures.CALENDAR);
+        productIds = new UUID[PRODUCTS];
+        for (int i = 0; i < PRODUCTS; i++) {
+            productIds[i] = products[i].getProductId();
+        }
+    }
+
+    @Benchmark
+    public boolean mixed() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int product = random.nextInt(PRODUCTS);
+        int operation = random.nextInt(100);
+        if (operation < cancelPercent)
+            return service.cancel(productIds[product]);
+        if (operation < 2 * cancelPercent)
+            return service.reschedule(productIds[product], days);
+        return service.scheduleDelivery(days, products[product]);
+    }
+}
@@ -0,0 +1,69 @@
+package mathem.challenge;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the seat reservations when every thread books the first
+ * slot with a free seat of the same days, alone and with 256 threads. The
+ * store holds the delivery period only and is replaced once full, by the
+ * thread finding it full.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CapacityBenchmark {
+    @Param({ "1", "8", "64" })
+    private int slotCapacity;
+
+    private final AtomicReference<SlotStore> store =
+    new AtomicReference<SlotStore>();
+
+    @Setup
+    public void setUp() {
+        store.set(newStore());
+    }
+
+    private SlotStore newStore() {
+        return new SlotStore(0, DeliveryService.PERIOD_LENGTH, slotCapacity);
+    }
+
+    private int book() {
+        SlotStore current = store.get();
+        for (int day = 0; day < DeliveryService.PERIOD_LENGTH; day++) {
+            int slotIndex = current.bookFirstFree(day, 1L, 2L);
+            if (slotIndex != SlotStore.NO_SLOT)
+                return slotIndex;
+        }
+        store.compareAndSet(current, newStore());
+        return SlotStore.NO_SLOT;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int bookAlone() {
+        return book();
+    }
+
+    @Benchmark
+    @Threads(256)
+    public int bookContended() {
+        return book();
+    }
+}
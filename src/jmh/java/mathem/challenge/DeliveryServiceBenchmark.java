@@ -0,0 +1,70 @@
+package mathem.challenge;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mathem.challenge.BenchmarkFixtures.Fill;
+import mathem.challenge.BenchmarkFixtures.Mix;
+
+/**
+ * Benchmarks of the booking paths of DeliveryService, each invocation
+ * scheduling a whole cart against a freshly filled schedule
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DeliveryServiceBenchmark {
+    @Param({ "EMPTY", "HALF", "FULL" })
+    private Fill fill;
+
+    @Param({ "1", "50", "200" })
+    private int cartSize;
+
+    @Param({ "FLEXIBLE", "MIXED", "CONSTRAINED" })
+    private Mix mix;
+
+    private List<Product> cart;
+    private DeliveryService service;
+
+    @Setup(Level.Trial)
+    public void setUpCart() {
+        cart = BenchmarkFixtures.cart(cartSize, mix);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpService() {
+        service = BenchmarkFixtures.service(fill);
+    }
+
+    @Benchmark
+    public int scheduleDelivery() {
+        int scheduled = 0;
+        for (Product product : cart) {
+            if (service.scheduleDelivery(App.possibleDays(product,
+                BenchmarkFixtures.CALENDAR), product))
+                scheduled++;
+        }
+        return scheduled;
+    }
+
+    @Benchmark
+    public boolean[] scheduleDeliveries() {
+        return service.scheduleDeliveries(cart);
+    }
+}
@@ -0,0 +1,77 @@
+package mathem.challenge;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mathem.challenge.BenchmarkFixtures.Mix;
+
+/**
+ * Throughput of concurrent checkouts as the postcodes are spread over more
+ * depots, each thread ordering for the postcodes of one depot. With a single
+ * depot every thread contends for the same days, with as many depots as
+ * threads they share no scheduling state.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class DepotBenchmark {
+    @State(Scope.Benchmark)
+    public static class Depots {
+        @Param({ "1", "2", "4", "8" })
+        private int depots;
+
+        private final AtomicInteger threads = new AtomicInteger();
+        private App app;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            DepotRouter router = new DepotRouter(BenchmarkFixtures.CALENDAR);
+            for (int i = 0; i < depots; i++) {
+                router.addRoute(Integer.toString(i + 1), "depot" + i);
+            }
+            app = new App(router);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Checkout {
+        private String postcode;
+        private List<Product> cart;
+        private Writer out;
+
+        @Setup
+        public void setUp(Depots depots) {
+            int thread = depots.threads.getAndIncrement();
+            postcode = (1 + thread % depots.depots) + "2345";
+            cart = BenchmarkFixtures.cart(5, Mix.MIXED);
+            out = Writer.nullWriter();
+        }
+    }
+
+    @Benchmark
+    public void writeDeliveryDates(Depots depots, Checkout checkout)
+    throws IOException {
+        depots.app.writeDeliveryDates(checkout.postcode, checkout.cart,
+        checkout.out);
+    }
+}
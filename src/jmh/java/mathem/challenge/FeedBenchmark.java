@@ -0,0 +1,54 @@
+package mathem.challenge;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Average time of publishing a booking to a BookingFeed of 1024 entries
+ * with one handler consuming the events, under each overflow policy. Run
+ * with -prof gc to check that publishing does not allocate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FeedBenchmark {
+    @Param({ "BLOCK", "DROP" })
+    private BookingFeed.OverflowPolicy policy;
+
+    private BookingFeed feed;
+    private long epochDay;
+
+    @Setup
+    public void setUp() {
+        feed = new BookingFeed(1024, policy, (event, endOfBatch) ->
+            Blackhole.consumeCPU(10));
+        epochDay = LocalDate.of(2020, 5, 12).toEpochDay();
+    }
+
+    @TearDown
+    public void tearDown() {
+        feed.close();
+    }
+
+    @Benchmark
+    public boolean publish() {
+        return feed.publish(BookingEvent.Type.BOOKED, epochDay, 3, 1L, 2L);
+    }
+}
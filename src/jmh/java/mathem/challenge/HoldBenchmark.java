@@ -0,0 +1,118 @@
+package mathem.challenge;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the slot holds: a hold released by the checkout with 8 threads,
+ * and the expiry of every outstanding hold of a service once their TTL has
+ * passed, released by the call following the expiry
+ */
+@Fork(1)
+public class HoldBenchmark {
+    private static final Duration TTL = Duration.ofMinutes(10);
+    private static final Product PRODUCT = Product.create("P1");
+
+    /**
+     * A Clock moved by the benchmark
+     */
+    private static final class ManualClock extends Clock {
+        private final ZoneId zone;
+        private volatile Instant instant;
+
+        private ManualClock(Instant instant, ZoneId zone) {
+            this.instant = instant;
+            this.zone = zone;
+        }
+
+        @Override public ZoneId getZone() {
+            return zone;
+        }
+
+        @Override public Clock withZone(ZoneId zone) {
+            return new ManualClock(instant, zone);
+        }
+
+        @Override public Instant instant() {
+            return instant;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Checkout {
+        private final DeliveryService service = new DeliveryService(
+        BenchmarkFixtures.CALENDAR, 64);
+        private final List<LocalDate> days = Arrays.asList(
+        BenchmarkFixtures.CALENDAR.today().plusDays(1));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Threads(8)
+    public boolean holdAndRelease(Checkout checkout) {
+        return checkout.service.release(checkout.service.holdDelivery(
+            checkout.days, PRODUCT, TTL).get());
+    }
+
+    @State(Scope.Thread)
+    public static class Abandoned {
+        @Param({ "10000", "200000" })
+        private int holds;
+
+        private ManualClock clock;
+        private DeliveryService service;
+
+        @Setup(Level.Invocation)
+        public void setUp() {
+            clock = new ManualClock(Instant.parse("2020-05-11T06:00:00Z"),
+            ZoneId.of("Europe/Stockholm"));
+            DeliveryCalendar calendar = new DeliveryCalendar(clock);
+            service = new DeliveryService(calendar, 64);
+            LocalDate day = calendar.today();
+            List<LocalDate> days = Arrays.asList(day);
+            for (int i = 0; i < holds; i++) {
+                // The holds of a checkout taking a second each
+                if (i % 1000 == 0)
+                    clock.instant = clock.instant.plusSeconds(1);
+                if (!service.holdDelivery(days, PRODUCT, TTL).isPresent()) {
+                    day = day.plusDays(1);
+                    days = Arrays.asList(day);
+                    i--;
+                }
+            }
+            clock.instant = clock.instant.plus(TTL).plusSeconds(1);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 10)
+    public int expireHolds(Abandoned abandoned) {
+        return abandoned.service.countDeliveries();
+    }
+}
@@ -0,0 +1,84 @@
+package mathem.challenge;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of a midnight rollover of a store with every slot of the delivery
+ * period booked: moving the ring of days of the store, against rebuilding a
+ * store starting on the new day from the bookings of the old one. Each
+ * rollover books the last day of the new period so that the period stays
+ * full.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HorizonBenchmark {
+    private static final int PERIOD_LENGTH = DeliveryService.PERIOD_LENGTH;
+    private static final int CAPACITY_DAYS = DeliveryService.CAPACITY_DAYS;
+
+    @Param({ "1", "8" })
+    private int slotCapacity;
+
+    private SlotStore store;
+    private long today;
+
+    @Setup
+    public void setUp() {
+        today = BenchmarkFixtures.CALENDAR.today().toEpochDay();
+        store = new SlotStore(today, CAPACITY_DAYS, slotCapacity);
+        for (int i = 0; i < PERIOD_LENGTH; i++) {
+            fill(store, today + i);
+        }
+    }
+
+    private static void fill(SlotStore store, long epochDay) {
+        int dayIndex = store.dayIndex(epochDay);
+        while (store.bookFirstFree(dayIndex, 1L, 2L) != SlotStore.NO_SLOT) {
+        }
+    }
+
+    @Benchmark
+    public SlotStore advance() {
+        today++;
+        store.advance(today);
+        fill(store, today + PERIOD_LENGTH - 1);
+        return store;
+    }
+
+    @Benchmark
+    public SlotStore rebuild() {
+        today++;
+        SlotStore rebuilt = new SlotStore(today, CAPACITY_DAYS, slotCapacity);
+        for (long day = today; day <= store.lastDay(); day++) {
+            int from = store.dayIndex(day);
+            int to = rebuilt.dayIndex(day);
+            for (int i = 0; i < SlotStore.SLOTS_PER_DAY; i++) {
+                int slot = SlotStore.slot(from, i);
+                for (long seats = store.seats(slot); seats != 0;
+                    seats &= seats - 1) {
+                    int seat = Long.numberOfTrailingZeros(seats);
+                    rebuilt.book(to, i, store.productMsb(slot, seat),
+                    store.productLsb(slot, seat));
+                }
+            }
+        }
+        store = rebuilt;
+        fill(store, today + PERIOD_LENGTH - 1);
+        return store;
+    }
+}
@@ -0,0 +1,73 @@
+package mathem.challenge;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the booking journal, alone and with 8 concurrent checkouts.
+ * In SYNC durability a single checkout pays a whole fsync per booking while
+ * concurrent checkouts share it through group commit, ASYNC durability shows
+ * the cost of encoding and queueing the records only.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JournalBenchmark {
+    @Param({ "SYNC", "ASYNC" })
+    private BookingJournal.Durability durability;
+
+    private final AtomicLong bookings = new AtomicLong();
+    private Path path;
+    private BookingJournal journal;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        path = Files.createTempFile("bookings", ".journal");
+        journal = BookingJournal.open(path, durability);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        journal.close();
+        Files.delete(path);
+    }
+
+    private void append() {
+        long booking = bookings.getAndIncrement();
+        journal.append(18393 + booking % DeliveryService.CAPACITY_DAYS,
+        (int) (booking % DeliveryService.MAX_DELIVERIES), booking, booking);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void appendAlone() {
+        append();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void appendConcurrent() {
+        append();
+    }
+}
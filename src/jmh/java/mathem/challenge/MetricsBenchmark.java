@@ -0,0 +1,84 @@
+package mathem.challenge;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mathem.challenge.BenchmarkFixtures.Fill;
+import mathem.challenge.BenchmarkFixtures.Mix;
+
+/**
+ * Overhead of the DeliveryMetrics on the hot paths, comparing the same
+ * calls with the metrics enabled and disabled. Scheduling runs against a
+ * full schedule so that every call probes all the candidate days of each
+ * product without changing the state of the service.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+@State(Scope.Thread)
+public class MetricsBenchmark {
+    @Param({ "true", "false" })
+    private boolean enabled;
+
+    private DeliveryService half;
+    private DeliveryService full;
+    private List<Product> cart;
+    private LocalDate day;
+    private App app;
+
+    @Setup
+    public void setUp() {
+        half = BenchmarkFixtures.service(Fill.HALF);
+        full = BenchmarkFixtures.service(Fill.FULL);
+        cart = BenchmarkFixtures.cart(50, Mix.MIXED);
+        day = BenchmarkFixtures.CALENDAR.today().plusDays(1);
+        app = new App(full);
+        half.getMetrics().setEnabled(enabled);
+        full.getMetrics().setEnabled(enabled);
+    }
+
+    @TearDown
+    public void tearDown() {
+        half.getMetrics().setEnabled(true);
+        full.getMetrics().setEnabled(true);
+    }
+
+    @Benchmark
+    public boolean[] scheduleDeliveries() {
+        return full.scheduleDeliveries(cart);
+    }
+
+    @Benchmark
+    public void writeDeliveryDates() throws IOException {
+        app.writeDeliveryDates("12345", cart, Writer.nullWriter());
+    }
+
+    @Benchmark
+    public Optional<?> nextSlot() {
+        return half.nextSlot(day);
+    }
+
+    @Benchmark
+    public List<?> getSchedule() {
+        return half.getSchedule();
+    }
+}
@@ -0,0 +1,67 @@
+package mathem.challenge;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.time.DayOfWeek;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Records per second of the OrderPipeline on a stream of orders of 5 mixed
+ * products, spread over 8 depots
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PipelineBenchmark {
+    private static final int ORDERS = 10000;
+
+    private String orders;
+
+    @Setup
+    public void setUp() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < ORDERS; i++) {
+            builder.append("{\"postalCode\":\"").append(1 + i % 8)
+            .append("2345\",\"products\":[");
+            for (int j = 0; j < 5; j++) {
+                int product = (i + j) % 50;
+                builder.append(j == 0 ? "" : ",")
+                .append("{\"productName\":\"P").append(product)
+                .append("\",\"deliveryDays\":[\"")
+                .append(DayOfWeek.of(1 + product % 7))
+                .append("\"],\"daysInAdvance\":").append(product % 10)
+                .append('}');
+            }
+            builder.append("]}\n");
+        }
+        orders = builder.toString();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ORDERS)
+    public long run() throws IOException {
+        DepotRouter router = new DepotRouter(BenchmarkFixtures.CALENDAR);
+        for (int i = 0; i < 8; i++) {
+            router.addRoute(Integer.toString(i + 1), "depot" + i);
+        }
+        OrderPipeline pipeline = new OrderPipeline(router,
+        new ProductCatalog());
+        return pipeline.run(new StringReader(orders), Writer.nullWriter());
+    }
+}
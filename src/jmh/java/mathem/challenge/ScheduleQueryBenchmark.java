@@ -0,0 +1,102 @@
+package mathem.challenge;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import org.javatuples.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import mathem.challenge.BenchmarkFixtures.Fill;
+
+/**
+ * Benchmarks of the read paths of DeliveryService and of the JSON
+ * serialization of the schedule
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ScheduleQueryBenchmark {
+    @Param({ "EMPTY", "HALF", "FULL" })
+    private Fill fill;
+
+    private DeliveryService service;
+    private LocalDate[] period;
+    private App app;
+    private Writer out;
+
+    @Setup
+    public void setUp() {
+        service = BenchmarkFixtures.service(fill);
+        period = new LocalDate[DeliveryService.PERIOD_LENGTH];
+        for (int i = 0; i < period.length; i++) {
+            period[i] = BenchmarkFixtures.CALENDAR.today().plusDays(i);
+        }
+        app = new App(service);
+        out = Writer.nullWriter();
+    }
+
+    @Benchmark
+    public void nextSlot(Blackhole blackhole) {
+        for (LocalDate day : period) {
+            blackhole.consume(service.nextSlot(day));
+        }
+    }
+
+    @Benchmark
+    public int countDeliveries() {
+        int count = 0;
+        for (LocalDate day : period) {
+            count += service.countDeliveries(day);
+        }
+        return count;
+    }
+
+    @Benchmark
+    public List<Pair<OffsetDateTime,Boolean>> getSchedule() {
+        return service.getSchedule();
+    }
+
+    /**
+     * The Gson JsonArray serialization listDeliveryDates used to do, kept as
+     * the baseline of writeSchedule
+     */
+    @Benchmark
+    public String toJson() {
+        JsonArray arr = new JsonArray();
+        service.getSchedule().forEach(value -> {
+            JsonObject obj = new JsonObject();
+            obj.addProperty("postalCode", "12345");
+            obj.addProperty("deliveryDate", value.getValue0().toString());
+            obj.addProperty("isGreenDelivery", value.getValue1());
+            arr.add(obj);
+        });
+        return new Gson().toJson(arr);
+    }
+
+    @Benchmark
+    public void writeSchedule() throws IOException {
+        app.writeSchedule("12345", out);
+    }
+}
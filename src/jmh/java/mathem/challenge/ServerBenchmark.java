@@ -0,0 +1,80 @@
+package mathem.challenge;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Local load test of the DeliveryServer: 8 clients sending delivery date
+ * queries over loopback, with TCP_NODELAY as App sets it when serving. The throughput mode gives the requests per second,
+ * the sample time mode the latency percentiles including p0.99.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+@Threads(8)
+public class ServerBenchmark {
+    @State(Scope.Benchmark)
+    public static class Server {
+        private DeliveryServer server;
+        private HttpClient client;
+        private HttpRequest request;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            ProductCatalog catalog = new ProductCatalog();
+            StringBuilder products = new StringBuilder();
+            for (Product product : BenchmarkFixtures.cart(5,
+                BenchmarkFixtures.Mix.MIXED)) {
+                Product registered = catalog.register(
+                product.getProductName(), product.getProductType(),
+                product.getDeliveryDays(), product.getDaysInAdvance());
+                products.append(products.length() == 0 ? "" : ",")
+                .append(registered.getProductName());
+            }
+            server = new DeliveryServer(new App(BenchmarkFixtures.service(
+                BenchmarkFixtures.Fill.HALF)), catalog,
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1).build();
+            request = HttpRequest.newBuilder(URI.create("http://localhost:"
+                + server.getAddress().getPort() + DeliveryServer.PATH))
+            .header("Content-Type", "application/x-www-form-urlencoded")
+            .POST(HttpRequest.BodyPublishers.ofString(
+                "postcode=12345&products=" + products)).build();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            server.close();
+        }
+    }
+
+    @Benchmark
+    public String deliveryDates(Server server) throws IOException,
+    InterruptedException {
+        return server.client.send(server.request,
+        HttpResponse.BodyHandlers.ofString()).body();
+    }
+}
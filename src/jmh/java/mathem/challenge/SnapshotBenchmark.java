@@ -0,0 +1,79 @@
+package mathem.challenge;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Restore time of a schedule with every slot booked up to a horizon, from a
+ * snapshot and from a journal of the same bookings
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SnapshotBenchmark {
+    @Param({ "14", "90", "380" })
+    private int horizonDays;
+
+    private Path snapshot;
+    private Path journal;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        snapshot = Files.createTempFile("schedule", ".snapshot");
+        journal = Files.createTempFile("bookings", ".journal");
+        Files.delete(journal);
+        try (BookingJournal bookings = BookingJournal.open(journal,
+            BookingJournal.Durability.ASYNC)) {
+            DeliveryService service = new DeliveryService(
+            BenchmarkFixtures.CALENDAR, bookings);
+            for (int i = 0; i < horizonDays; i++) {
+                LocalDate day = BenchmarkFixtures.CALENDAR.today().plusDays(i);
+                for (int hour = BenchmarkFixtures.FIRST_DELIVERY_SLOT;
+                    hour <= BenchmarkFixtures.LAST_DELIVERY_SLOT; hour++) {
+                    service.addSlot(day.atTime(hour, 0));
+                }
+            }
+            service.writeSnapshot(snapshot);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.delete(snapshot);
+        Files.delete(journal);
+    }
+
+    @Benchmark
+    public DeliveryService restoreSnapshot() throws IOException {
+        return DeliveryService.fromSnapshot(BenchmarkFixtures.CALENDAR,
+        snapshot);
+    }
+
+    @Benchmark
+    public DeliveryService replayJournal() throws IOException {
+        try (BookingJournal bookings = BookingJournal.open(journal,
+            BookingJournal.Durability.ASYNC)) {
+            return new DeliveryService(BenchmarkFixtures.CALENDAR, bookings);
+        }
+    }
+}
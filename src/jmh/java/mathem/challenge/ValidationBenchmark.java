@@ -0,0 +1,96 @@
+package mathem.challenge;
+
+import java.time.DayOfWeek;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mathem.challenge.Product.ProductType;
+
+/**
+ * Selection of the valid products of a cart mixing the product types, about
+ * a third of them invalid: the columnar ProductBatch against the stream
+ * filter into a new list it replaced
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ValidationBenchmark {
+    @Param({ "10", "1000" })
+    private int cartSize;
+
+    private List<Product> cart;
+
+    @Setup
+    public void setUp() {
+        cart = new ArrayList<Product>(cartSize);
+        ProductType[] types = ProductType.values();
+        for (int i = 0; i < cartSize; i++) {
+            cart.add(Product.create("P" + i, types[i % types.length],
+                EnumSet.of(DayOfWeek.of(1 + i % 7),
+                DayOfWeek.of(1 + (i + 2) % 7)), i % 8));
+        }
+    }
+
+    @Benchmark
+    public List<Product> streamFilter() {
+        return new ArrayList<Product>(cart).stream().collect(
+            Collectors.filtering(product -> product.isValid(),
+            Collectors.toList()));
+    }
+
+    @Benchmark
+    public List<Product> productBatch() {
+        return new ProductBatch(cart).validProducts();
+    }
+
+    @Benchmark
+    public int selectColumns(ColumnState columns) {
+        return ValidationRules.select(columns.types, columns.weekdayMasks,
+        columns.daysInAdvance, columns.types.length, columns.selection);
+    }
+
+    /**
+     * The columns of the cart alone, to time the selection loop
+     */
+    @State(Scope.Benchmark)
+    public static class ColumnState {
+        private byte[] types;
+        private byte[] weekdayMasks;
+        private byte[] daysInAdvance;
+        private int[] selection;
+
+        @Setup
+        public void setUp(ValidationBenchmark benchmark) {
+            int length = benchmark.cart.size();
+            types = new byte[length];
+            weekdayMasks = new byte[length];
+            daysInAdvance = new byte[length];
+            selection = new int[length];
+            for (int i = 0; i < length; i++) {
+                Product product = benchmark.cart.get(i);
+                types[i] = (byte) product.getProductType().ordinal();
+                weekdayMasks[i] = (byte) product.getWeekdayMask();
+                daysInAdvance[i] = ValidationRules.saturate(
+                    product.getDaysInAdvance());
+            }
+        }
+    }
+}
@@ -1,32 +1,71 @@
 package mathem.challenge;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.DayOfWeek;
 import java.time.LocalDate;
-import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.List;
-import java.util.stream.Collectors;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
+import javax.management.JMException;
 
-import org.javatuples.Pair;
+import com.google.gson.stream.JsonWriter;
 
 import mathem.challenge.Product.ProductType;
 
 public class App {
-    private static final int PERIOD_LENGTH = 14;
-    private DeliveryService deliveryService;
+    // The depots of `App serve` by postcode prefix, the postcodes matching
+    // none of them being delivered by the default depot
+    private static final String[][] SERVED_ROUTES = {
+        { "1", "stockholm" }, { "2", "malmo" }, { "4", "goteborg" } };
 
+    private final DepotRouter depotRouter;
+
+    /**
+     * Creates an App scheduling the deliveries of every postcode on the
+     * given DeliveryService
+     * @param deliveryService - the DeliveryService of every postcode
+     */
     public App(DeliveryService deliveryService) {
-        this.deliveryService = deliveryService;
+        this(new DepotRouter(deliveryService));
+    }
+
+    /**
+     * Creates an App scheduling the deliveries of each postcode on the
+     * DeliveryService of the depot the postcode is routed to
+     * @param depotRouter - the router of the postcodes to the depots
+     */
+    public App(DepotRouter depotRouter) {
+        this.depotRouter = depotRouter;
     }
 
-    public static void main(String[] args) {
+    /**
+     * Prints the delivery dates of a sample cart. With the arguments
+     * "serve [port]" starts a DeliveryServer on the port, 8080 by default,
+     * and with "batch orders.jsonl results.jsonl" schedules the orders of the
+     * file with an OrderPipeline.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("serve")) {
+            serve(args.length > 1 ? Integer.parseInt(args[1]) : 8080);
+            return;
+        }
+        if (args.length == 3 && args[0].equals("batch")) {
+            batch(Paths.get(args[1]), Paths.get(args[2]));
+            return;
+        }
         DeliveryService deliveryService = new DeliveryService();
         App app = new App(deliveryService);
         Product[] products = new Product[] {
@@ -44,6 +83,58 @@ public class App {
         app.listDeliveryDates("12345", Arrays.asList(products));
     }
 
+    private static void batch(Path orders, Path results) throws IOException {
+        OrderPipeline pipeline = new OrderPipeline(new DepotRouter(),
+        new ProductCatalog());
+        long start = System.nanoTime();
+        long count;
+        try (Reader in = Files.newBufferedReader(orders);
+             Writer out = Files.newBufferedWriter(results)) {
+            count = pipeline.run(in, out);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("%d orders in %.3f s, %.0f records/s%n", count,
+        seconds, count / seconds);
+    }
+
+    private static void serve(int port) throws IOException {
+        ProductCatalog catalog = new ProductCatalog();
+        catalog.register("P1", ProductType.NORMAL,
+        EnumSet.allOf(DayOfWeek.class), 15);
+        catalog.register("P2");
+        catalog.register("P3");
+        catalog.register("P4", ProductType.NORMAL,
+        EnumSet.allOf(DayOfWeek.class), 6);
+        DepotRouter router = new DepotRouter();
+        registerMetrics(router, DepotRouter.DEFAULT_DEPOT);
+        for (String[] route : SERVED_ROUTES) {
+            router.addRoute(route[0], route[1]);
+            registerMetrics(router, route[1]);
+        }
+        // The headers and the body of a response are written separately,
+        // without TCP_NODELAY Nagle's algorithm holds the body back for a
+        // delayed ACK on each request. The JDK server reads the property when
+        // its classes are loaded, so it is set before the first one.
+        System.getProperties().putIfAbsent("sun.net.httpserver.nodelay",
+        "true");
+        DeliveryServer server = new DeliveryServer(new App(router), catalog,
+        new InetSocketAddress(port));
+        System.out.println("Listening on http://localhost:"
+        + server.getAddress().getPort() + DeliveryServer.PATH);
+    }
+
+    /**
+     * Registers the metrics of the shard of a depot under the name of the
+     * depot, creating the shard
+     */
+    private static void registerMetrics(DepotRouter router, String depot) {
+        try {
+            router.shard(depot).getMetrics().register(depot);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Return the available delivery dates for the upcoming 14 days.
      * Calculations are made from the current date when code runs.
@@ -63,28 +154,89 @@ public class App {
      */
     public void listDeliveryDates(String postcode,
                                          Collection<Product> products) {
-        products = getValidProducts(new ArrayList<Product>(products));
-        for (Product product : products) {
-            List<LocalDate> possibleDays = possibleDays(product);
-            deliveryService.scheduleDelivery(possibleDays, product);
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+        try {
+            writeDeliveryDates(postcode, products, out);
+            out.write(System.lineSeparator());
+            out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-        List<Pair<OffsetDateTime,Boolean>> schedule = 
-        deliveryService.getSchedule();
-        JsonArray arr = new JsonArray();
-        schedule.forEach(value -> {
-            JsonObject obj = new JsonObject();
-            obj.addProperty("postalCode", postcode);
-            obj.addProperty("deliveryDate", value.getValue0().toString());
-            obj.addProperty("isGreenDelivery", value.getValue1());
-            arr.add(obj);
-        });
-        Gson gson = new Gson();
-        System.out.println(gson.toJson(arr));
     }
 
-    private static List<Product> getValidProducts(List<Product> products) {
-        return products.stream().collect(Collectors.filtering(product -> 
-        product.isValid(), Collectors.toList()));
+    /**
+     * Schedules the delivery of the products and streams the available
+     * delivery dates as the JSON array printed by listDeliveryDates.
+     * @param postcode - the postcal code for the delivery
+     * @param products - the list of products to deliver
+     * @param out - the stream to write the JSON array to, encoded in UTF-8
+     * @throws IOException if writing to the stream fails
+     */
+    public void writeDeliveryDates(String postcode,
+                                   Collection<Product> products,
+                                   OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out,
+        StandardCharsets.UTF_8));
+        writeDeliveryDates(postcode, products, writer);
+        writer.flush();
+    }
+
+    /**
+     * Schedules the delivery of the products and streams the available
+     * delivery dates as the JSON array printed by listDeliveryDates.
+     * @param postcode - the postcal code for the delivery
+     * @param products - the list of products to deliver
+     * @param out - the Writer to write the JSON array to
+     * @throws IOException if writing to the Writer fails
+     */
+    public void writeDeliveryDates(String postcode,
+                                   Collection<Product> products,
+                                   Writer out) throws IOException {
+        DeliveryService deliveryService =
+        depotRouter.deliveryService(postcode);
+        long start = deliveryService.getMetrics().start();
+        deliveryService.scheduleDeliveries(new ProductBatch(products)
+            .validProducts());
+        writeSchedule(postcode, deliveryService, out);
+        deliveryService.getMetrics().recordRequest(start);
+    }
+
+    /**
+     * Streams the delivery schedule of the depot of the postcode to the
+     * Writer
+     * @param postcode - the postcal code for the delivery
+     * @param out - the Writer to write the JSON array to
+     * @throws IOException if writing to the Writer fails
+     */
+    void writeSchedule(String postcode, Writer out) throws IOException {
+        writeSchedule(postcode, depotRouter.deliveryService(postcode), out);
+    }
+
+    /**
+     * Streams the delivery schedule to the Writer one slot at a time, without
+     * building a JSON tree. The output is the one of Gson.toJson for the
+     * equivalent JsonArray.
+     * @param postcode - the postcal code for the delivery
+     * @param deliveryService - the DeliveryService holding the schedule
+     * @param out - the Writer to write the JSON array to
+     * @throws IOException if writing to the Writer fails
+     */
+    private static void writeSchedule(String postcode,
+                                      DeliveryService deliveryService,
+                                      Writer out) throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        writer.setHtmlSafe(true);
+        writer.setSerializeNulls(false);
+        writer.beginArray();
+        deliveryService.visitSchedule((deliveryDate, isGreen) -> {
+            writer.beginObject();
+            writer.name("postalCode").value(postcode);
+            writer.name("deliveryDate").value(deliveryDate);
+            writer.name("isGreenDelivery").value(isGreen);
+            writer.endObject();
+        });
+        writer.endArray();
+        writer.flush();
     }
 
     /**
@@ -93,21 +245,27 @@ public class App {
      * @param product
      * @return
      */
-    private static List<LocalDate> possibleDays(Product product) {
-        int daysInAdvance = product.getDaysInAdvance();
-        // Skip the current day as DeliveryService does not account for
-        // time of current day
-        daysInAdvance = daysInAdvance == 0 ? 1 : daysInAdvance;
-        if (daysInAdvance >= PERIOD_LENGTH) {
-            return new ArrayList<LocalDate>();
-        }
-        EnumSet<DayOfWeek> deliveryDays = product.getDeliveryDays();
-        ArrayList<LocalDate> possibleDays = new ArrayList<LocalDate>();
-        LocalDate endOfPeriod = LocalDate.now().plusDays(PERIOD_LENGTH);
-        for (LocalDate d = LocalDate.now().plusDays(daysInAdvance);
-            d.isBefore(endOfPeriod); d = d.plusDays(1)) {
-            if (deliveryDays.contains(d.getDayOfWeek()))
-                possibleDays.add(d);
+    static List<LocalDate> possibleDays(Product product) {
+        return possibleDays(product, DeliveryCalendar.systemDefault());
+    }
+
+    /**
+     * Returns a list of LocalDate within the delivery period of the calendar
+     * where a delivery for the product could happen if there is a delivery
+     * slot.
+     * @param product - the product to find the delivery days of
+     * @param calendar - the calendar of the delivery period
+     * @return the days where the product could be delivered
+     */
+    static List<LocalDate> possibleDays(Product product,
+                                        DeliveryCalendar calendar) {
+        PossibleDays table = calendar.horizon().possibleDays();
+        int candidates = table.candidateDays(product);
+        ArrayList<LocalDate> possibleDays =
+        new ArrayList<LocalDate>(Integer.bitCount(candidates));
+        for (; candidates != 0; candidates &= candidates - 1) {
+            possibleDays.add(table.day(Integer.numberOfTrailingZeros(
+                candidates)));
         }
         return possibleDays;
     }
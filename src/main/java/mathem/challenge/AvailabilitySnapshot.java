@@ -0,0 +1,106 @@
+package mathem.challenge;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable availability of the days of the delivery period for one version
+ * of the seats of a DeliveryService: the slots of each day with a free seat
+ * and the green days, as bitmasks. A new snapshot is built by the first
+ * query after the seats change, from the full-slot masks of the store
+ * without any lock, and the other queries read the snapshot without
+ * touching the store, so they never wait on the bookings nor slow them down
+ * by reading the slots they write.
+ */
+final class AvailabilitySnapshot {
+    private final long version;
+    private final PossibleDays table;
+    private final int[] freeSlots;
+    private final int availableDays;
+    private final int greenDays;
+
+    /**
+     * @param version - the version of the seats of the service
+     * @param table - the PossibleDays of the current day
+     * @param freeSlots - the bitmask of the slots with a free seat of each
+     * day of the period, indexed by slot index
+     * @param greenDays - the bitmask of the green days of the period
+     */
+    AvailabilitySnapshot(long version, PossibleDays table, int[] freeSlots,
+                         int greenDays) {
+        this.version = version;
+        this.table = table;
+        this.freeSlots = freeSlots;
+        int availableDays = 0;
+        for (int i = 0; i < freeSlots.length; i++) {
+            if (freeSlots[i] != 0)
+                availableDays |= 1 << i;
+        }
+        this.availableDays = availableDays;
+        this.greenDays = greenDays;
+    }
+
+    long version() {
+        return version;
+    }
+
+    LocalDate today() {
+        return table.today();
+    }
+
+    /**
+     * @param snapshot - another snapshot of the same service
+     * @return true if this snapshot is of a later day, or of the same day
+     * and a later version of the seats
+     */
+    boolean isNewerThan(AvailabilitySnapshot snapshot) {
+        int days = today().compareTo(snapshot.today());
+        return days > 0 || days == 0 && version > snapshot.version;
+    }
+
+    /**
+     * @param index - the index of the day within the period
+     * @return the bitmask of the slots of the day with a free seat
+     */
+    int freeSlots(int index) {
+        return freeSlots[index];
+    }
+
+    /**
+     * @return the bitmask of the days of the period with a free seat
+     */
+    int availableDays() {
+        return availableDays;
+    }
+
+    /**
+     * @param product - the product to deliver
+     * @return the bitmask of the days of the period where the product could
+     * be delivered and a seat is free
+     */
+    int availableDays(Product product) {
+        return table.candidateDays(product) & availableDays;
+    }
+
+    /**
+     * @param index - the index of the day within the period
+     * @return true if the day is a green day
+     */
+    boolean isGreen(int index) {
+        return (greenDays & 1 << index) != 0;
+    }
+
+    /**
+     * @param days - a bitmask of days of the period
+     * @return the days of the bitmask in ascending order
+     */
+    List<LocalDate> days(int days) {
+        List<LocalDate> list = new ArrayList<LocalDate>(
+            Integer.bitCount(days));
+        for (; days != 0; days &= days - 1) {
+            list.add(table.day(Integer.numberOfTrailingZeros(days)));
+        }
+        return list;
+    }
+}
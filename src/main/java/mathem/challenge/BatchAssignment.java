@@ -0,0 +1,121 @@
+package mathem.challenge;
+
+import java.util.Arrays;
+
+/**
+ * Plans the assignment of a batch of products to days with free slots so
+ * that as many products as possible are delivered, as a maximum flow from
+ * the products to the days: a product can go to any of its candidate days
+ * and a day takes as many products as it has free slots.
+ *
+ * The products only differ through their bitmask of candidate days, so the
+ * products sharing one are grouped into a single node of the network, which
+ * has at most one node per distinct mask whatever the size of the batch.
+ * The flow starts from the greedy assignment, each product taking its first
+ * candidate day with a free slot, and only the augmenting paths needed to
+ * reach the maximum move products to later days.
+ */
+final class BatchAssignment {
+    static final int NO_DAY = -1;
+
+    private BatchAssignment() {
+    }
+
+    /**
+     * @param candidates - the bitmask of the candidate days of each product
+     * @param free - the number of free slots of each day
+     * @return the day planned for each product or NO_DAY, products of equal
+     * candidates being given days in ascending order in the order of the
+     * array
+     */
+    static int[] plan(int[] candidates, int[] free) {
+        int days = free.length;
+        int[] groupIndex = new int[1 << days];
+        Arrays.fill(groupIndex, -1);
+        int[] groupOf = new int[candidates.length];
+        int[] groupMasks = new int[16];
+        int[] groupSizes = new int[16];
+        int groups = 0;
+        for (int i = 0; i < candidates.length; i++) {
+            int mask = candidates[i];
+            int group = groupIndex[mask];
+            if (group < 0) {
+                if (groups == groupMasks.length) {
+                    groupMasks = Arrays.copyOf(groupMasks, 2 * groups);
+                    groupSizes = Arrays.copyOf(groupSizes, 2 * groups);
+                }
+                group = groups++;
+                groupIndex[mask] = group;
+                groupMasks[group] = mask;
+            }
+            groupOf[i] = group;
+            groupSizes[group]++;
+        }
+        // Greedy assignment in the order of the products
+        int[] greedy = new int[groups * days];
+        int[] remaining = free.clone();
+        int open = 0;
+        for (int day = 0; day < days; day++) {
+            if (remaining[day] > 0)
+                open |= 1 << day;
+        }
+        for (int i = 0; i < candidates.length; i++) {
+            int mask = candidates[i] & open;
+            if (mask == 0)
+                continue;
+            int day = Integer.numberOfTrailingZeros(mask);
+            greedy[groupOf[i] * days + day]++;
+            if (--remaining[day] == 0)
+                open &= ~(1 << day);
+        }
+        // Source 0, then one node per group, one per day and the sink
+        int source = 0;
+        int sink = 1 + groups + days;
+        FlowNetwork network = new FlowNetwork(sink + 1,
+        groups * (1 + days) + days);
+        int[] dayEdges = new int[days];
+        for (int day = 0; day < days; day++) {
+            dayEdges[day] = network.addEdge(1 + groups + day, sink,
+            Math.max(0, free[day]));
+            network.push(dayEdges[day], free[day] - remaining[day]);
+        }
+        int[] edges = new int[groups * days];
+        for (int group = 0; group < groups; group++) {
+            int sourceEdge = network.addEdge(source, 1 + group,
+            groupSizes[group]);
+            int assigned = 0;
+            for (int mask = groupMasks[group]; mask != 0; mask &= mask - 1) {
+                int day = Integer.numberOfTrailingZeros(mask);
+                int edge = network.addEdge(1 + group, 1 + groups + day,
+                groupSizes[group]);
+                network.push(edge, greedy[group * days + day]);
+                assigned += greedy[group * days + day];
+                edges[group * days + day] = edge;
+            }
+            network.push(sourceEdge, assigned);
+        }
+        network.maxFlow(source, sink);
+        int[] quotas = new int[groups * days];
+        for (int group = 0; group < groups; group++) {
+            for (int mask = groupMasks[group]; mask != 0; mask &= mask - 1) {
+                int day = Integer.numberOfTrailingZeros(mask);
+                quotas[group * days + day] =
+                network.flow(edges[group * days + day]);
+            }
+        }
+        int[] planned = new int[candidates.length];
+        for (int i = 0; i < candidates.length; i++) {
+            planned[i] = NO_DAY;
+            int offset = groupOf[i] * days;
+            for (int mask = candidates[i]; mask != 0; mask &= mask - 1) {
+                int day = Integer.numberOfTrailingZeros(mask);
+                if (quotas[offset + day] > 0) {
+                    quotas[offset + day]--;
+                    planned[i] = day;
+                    break;
+                }
+            }
+        }
+        return planned;
+    }
+}
@@ -0,0 +1,242 @@
+package mathem.challenge;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous front end of a DeliveryService scheduling carts in
+ * micro-batches. The carts submitted are validated by the submitting thread
+ * and queued, and a single writer thread takes them from the queue in
+ * batches of up to maxBatchSize carts, waiting up to maxDelay after the
+ * first cart of a batch for more carts to come. The carts of a batch are
+ * scheduled one after the other with DeliveryService.scheduleDeliveries and
+ * the future of each cart is completed on the writer thread as soon as it
+ * is scheduled, so a cart failing leaves the bookings of the other carts
+ * to their own futures.
+ *
+ * Only the writer books seats, so the carts of the checkouts contend on the
+ * queue instead of the slots of the store, and the bookings reach the
+ * journal and the feed of the service in the order of the queue. This is
+ * what the scheduler is kept for: it serializes the bookings of many
+ * checkout threads without them retrying their CAS on the same seats, at
+ * the cost of a handoff to the writer per batch. When the checkouts do
+ * not contend, as on a single CPU where BatchingBenchmark finds it several
+ * times slower than calling the service directly, the service should be
+ * called directly. The queue is bounded, a submit
+ * blocks while the writer is behind by more than QUEUE_BATCHES batches, so
+ * the actions depending on the futures should not submit carts from the
+ * writer thread but run asynchronously. The submits take no lock of their
+ * own: a cart queued after the scheduler is closed is taken back from the
+ * queue by its submitter, or by close, and rejected.
+ */
+public class BatchingScheduler implements Closeable {
+    static final int QUEUE_BATCHES = 16;
+    // The time a submit blocked on a full queue waits between checks of
+    // closed
+    static final long OFFER_MILLIS = 10;
+
+    private final DeliveryService deliveryService;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final BlockingQueue<Cart> queue;
+    private final Thread writer;
+    private volatile boolean closed;
+
+    /**
+     * A cart waiting to be scheduled
+     */
+    private static final class Cart {
+        private final ProductBatch products;
+        private final CompletableFuture<boolean[]> future =
+        new CompletableFuture<boolean[]>();
+
+        private Cart(ProductBatch products) {
+            this.products = products;
+        }
+    }
+
+    // Sent by close after the last cart
+    private static final Cart END = new Cart(null);
+
+    /**
+     * Creates a BatchingScheduler and starts its writer thread
+     * @param deliveryService - the DeliveryService to schedule the carts
+     * with
+     * @param maxBatchSize - the maximum number of carts of a batch
+     * @param maxDelay - the maximum time a batch waits for more carts after
+     * its first one, zero to only take the carts already queued
+     */
+    public BatchingScheduler(DeliveryService deliveryService, int maxBatchSize,
+                             Duration maxDelay) {
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException("Batch size " + maxBatchSize
+            + " is not positive");
+        if (maxDelay.isNegative())
+            throw new IllegalArgumentException("Delay " + maxDelay
+            + " is negative");
+        this.deliveryService = deliveryService;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.queue = new ArrayBlockingQueue<Cart>(QUEUE_BATCHES
+        * maxBatchSize);
+        this.writer = new Thread(this::write, "batching-scheduler");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Schedules the delivery of the valid products of a cart in the next
+     * batch, the same way DeliveryService.scheduleDeliveries would
+     * @param products - the products of the cart
+     * @return a CompletableFuture completed with an array holding, for each
+     * product in iteration order, true if its delivery was scheduled and
+     * false otherwise, or completed exceptionally with a
+     * RejectedExecutionException if the scheduler is closed
+     */
+    public CompletableFuture<boolean[]> scheduleDeliveries(
+        Collection<Product> products) {
+        Cart cart = new Cart(new ProductBatch(products));
+        try {
+            while (!closed) {
+                if (queue.offer(cart, OFFER_MILLIS, TimeUnit.MILLISECONDS)) {
+                    // The cart may be behind END, it is rejected unless the
+                    // writer or close already took it
+                    if (closed && queue.remove(cart))
+                        reject(cart);
+                    return cart.future;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cart.future.completeExceptionally(e);
+            return cart.future;
+        }
+        reject(cart);
+        return cart.future;
+    }
+
+    private static void reject(Cart cart) {
+        cart.future.completeExceptionally(
+            new RejectedExecutionException("Scheduler closed"));
+    }
+
+    /**
+     * Runs the writer until it takes END. Should the writer fail anyway,
+     * the scheduler is closed and the carts left are rejected rather than
+     * waiting for a writer that is gone.
+     */
+    private void write() {
+        List<Cart> batch = new ArrayList<Cart>(maxBatchSize);
+        try {
+            boolean end = false;
+            while (!end) {
+                try {
+                    end = take(batch);
+                } catch (InterruptedException e) {
+                    // The writer stops on END only, the carts taken are
+                    // still scheduled
+                }
+                for (Cart cart : batch) {
+                    schedule(cart);
+                }
+                batch.clear();
+            }
+        } finally {
+            closed = true;
+            for (Cart cart : batch) {
+                reject(cart);
+            }
+            for (Cart cart = queue.poll(); cart != null; cart = queue.poll()) {
+                if (cart != END)
+                    reject(cart);
+            }
+        }
+    }
+
+    /**
+     * Takes the next batch of carts from the queue
+     * @return true if END was taken
+     */
+    private boolean take(List<Cart> batch) throws InterruptedException {
+        Cart cart = queue.take();
+        long deadline = System.nanoTime() + maxDelayNanos;
+        while (cart != END) {
+            batch.add(cart);
+            if (batch.size() == maxBatchSize)
+                return false;
+            cart = queue.poll();
+            if (cart == null) {
+                long delay = deadline - System.nanoTime();
+                if (delay <= 0)
+                    return false;
+                cart = queue.poll(delay, TimeUnit.NANOSECONDS);
+                if (cart == null)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Schedules the valid products of a cart and completes its future,
+     * exceptionally with whatever the service throws
+     */
+    private void schedule(Cart cart) {
+        try {
+            boolean[] scheduled = deliveryService.scheduleDeliveries(
+                cart.products.validProducts());
+            boolean[] result = new boolean[cart.products.size()];
+            for (int j = 0; j < cart.products.selected(); j++) {
+                result[cart.products.selection(j)] = scheduled[j];
+            }
+            cart.future.complete(result);
+        } catch (Throwable e) {
+            cart.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Schedules the carts submitted before and stops the writer thread,
+     * waiting for it unless interrupted, then rejects the carts queued after
+     * END
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+        }
+        boolean interrupted = false;
+        // END must be queued for the writer to stop, it frees the space
+        while (true) {
+            try {
+                queue.put(END);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        try {
+            if (!interrupted) {
+                writer.join();
+                for (Cart cart = queue.poll(); cart != null;
+                    cart = queue.poll()) {
+                    reject(cart);
+                }
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+}
@@ -0,0 +1,70 @@
+package mathem.challenge;
+
+import java.time.LocalDate;
+import java.util.UUID;
+
+/**
+ * A booking or a cancellation of a delivery published by a DeliveryService
+ * to a BookingFeed. The events are entries of the ring of the feed, reused
+ * for the following bookings once every handler has seen them: a handler
+ * must copy what it keeps of an event before returning.
+ */
+public final class BookingEvent {
+    public static enum Type { BOOKED, CANCELLED };
+
+    private long sequence;
+    private Type type;
+    private long epochDay;
+    private int slotIndex;
+    private long msb;
+    private long lsb;
+
+    BookingEvent() {
+    }
+
+    void set(long sequence, Type type, long epochDay, int slotIndex, long msb,
+             long lsb) {
+        this.sequence = sequence;
+        this.type = type;
+        this.epochDay = epochDay;
+        this.slotIndex = slotIndex;
+        this.msb = msb;
+        this.lsb = lsb;
+    }
+
+    /**
+     * @return the rank of the event in the feed, from 0
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public LocalDate getDeliveryDay() {
+        return LocalDate.ofEpochDay(epochDay);
+    }
+
+    /**
+     * @return the hour of the beginning of the slot in the time-zone of the
+     * calendar of the service
+     */
+    public int getHour() {
+        return DeliveryService.FIRST_DELIVERY_SLOT + slotIndex;
+    }
+
+    /**
+     * @return the id of the product or null for a slot booked without
+     * product by DeliveryService.addSlot
+     */
+    public UUID getProductId() {
+        return msb == 0L && lsb == 0L ? null : new UUID(msb, lsb);
+    }
+
+    @Override public String toString() {
+        return sequence + " " + type + " " + getDeliveryDay().atTime(getHour(),
+        0) + " " + getProductId();
+    }
+}
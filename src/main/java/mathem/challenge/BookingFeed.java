@@ -0,0 +1,243 @@
+package mathem.challenge;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feed of the bookings and cancellations of a DeliveryService to downstream
+ * handlers such as route planning or warehouse picking, in the manner of the
+ * LMAX Disruptor: a ring of preallocated BookingEvent entries, a sequence
+ * claimed by each publication and a sequence per handler telling how far it
+ * has read.
+ *
+ * Publishing claims the next sequence, writes the fields of its entry and
+ * marks the entry published with the sequence, without allocating nor
+ * locking, so the booking thread does not wait on the handlers. The
+ * bookings being made by concurrent checkouts, a sequence is claimed by an
+ * atomic increment rather than by a single producer. When the ring is full,
+ * the feed either waits for the slowest handler (BLOCK) or drops the event
+ * and counts it (DROP).
+ *
+ * Each handler runs on its own thread and receives the events in sequence
+ * order, in batches of the events published since its last batch, the last
+ * event of a batch being flagged so that a handler can flush once per
+ * batch. The handler threads poll the ring, parking between polls while it
+ * is empty, so that publishing never has to wake them up.
+ */
+public class BookingFeed implements Closeable {
+    public static enum OverflowPolicy { BLOCK, DROP };
+
+    // The time a handler thread parks while the ring is empty
+    static final long WAIT_NANOS = 100_000;
+
+    private final BookingEvent[] events;
+    private final int mask;
+    private final OverflowPolicy policy;
+    // The sequence published in each entry
+    private final AtomicLongArray published;
+    // The next sequence to claim
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final Consumer[] consumers;
+    // The lowest sequence read by all the handlers, as last computed
+    private volatile long gatingSequence = -1;
+    private volatile boolean closed;
+
+    /**
+     * Receives the events of a BookingFeed on the thread of the handler
+     */
+    @FunctionalInterface
+    public interface Handler {
+        /**
+         * @param event - the event, reused by the feed once the method
+         * returns
+         * @param endOfBatch - true if the event is the last one published so
+         * far
+         * @throws IOException if the event cannot be handled, the event is
+         * then counted as a failure and skipped
+         */
+        void onEvent(BookingEvent event, boolean endOfBatch)
+        throws IOException;
+    }
+
+    /**
+     * The thread of a handler and the last sequence it has read
+     */
+    private final class Consumer implements Runnable {
+        private final Handler handler;
+        private final AtomicLong sequence = new AtomicLong(-1);
+        private final Thread thread;
+
+        private Consumer(Handler handler, int index) {
+            this.handler = handler;
+            this.thread = new Thread(this, "booking-feed-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            long sequence = -1;
+            while (true) {
+                boolean closing = closed;
+                long available = sequence;
+                while (published.get(index(available + 1)) == available + 1) {
+                    available++;
+                }
+                if (available == sequence) {
+                    if (closing)
+                        return;
+                    LockSupport.parkNanos(WAIT_NANOS);
+                    continue;
+                }
+                for (long s = sequence + 1; s <= available; s++) {
+                    try {
+                        handler.onEvent(events[index(s)], s == available);
+                    } catch (IOException | RuntimeException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+                sequence = available;
+                this.sequence.set(sequence);
+            }
+        }
+    }
+
+    /**
+     * Creates a BookingFeed and starts the threads of its handlers
+     * @param capacity - the number of entries of the ring, a power of two
+     * @param policy - BLOCK to wait for the handlers when the ring is full,
+     * DROP to drop the event
+     * @param handlers - the handlers of the events
+     */
+    public BookingFeed(int capacity, OverflowPolicy policy,
+                       Handler... handlers) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("Capacity " + capacity
+            + " is not a power of two");
+        this.events = new BookingEvent[capacity];
+        this.mask = capacity - 1;
+        this.policy = policy;
+        this.published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            events[i] = new BookingEvent();
+            published.set(i, -1);
+        }
+        this.consumers = new Consumer[handlers.length];
+        for (int i = 0; i < handlers.length; i++) {
+            consumers[i] = new Consumer(handlers[i], i);
+        }
+        for (Consumer consumer : consumers) {
+            consumer.thread.start();
+        }
+    }
+
+    private int index(long sequence) {
+        return (int) sequence & mask;
+    }
+
+    /**
+     * @return the lowest sequence read by all the handlers
+     */
+    private long gate() {
+        long gate = Long.MAX_VALUE;
+        for (Consumer consumer : consumers) {
+            gate = Math.min(gate, consumer.sequence.get());
+        }
+        gatingSequence = gate;
+        return gate;
+    }
+
+    /**
+     * Publishes an event to the handlers
+     * @param type - the type of the event
+     * @param epochDay - the epoch day of the slot
+     * @param slotIndex - the index of the slot in the day
+     * @param msb - the most significant bits of the product UUID
+     * @param lsb - the least significant bits of the product UUID
+     * @return true if the event was published, false if it was dropped
+     */
+    boolean publish(BookingEvent.Type type, long epochDay, int slotIndex,
+                    long msb, long lsb) {
+        long sequence = policy == OverflowPolicy.BLOCK ? claim() : tryClaim();
+        if (sequence < 0) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        events[index(sequence)].set(sequence, type, epochDay, slotIndex, msb,
+        lsb);
+        published.set(index(sequence), sequence);
+        return true;
+    }
+
+    /**
+     * Claims the next sequence, waiting for the entry to be read by every
+     * handler
+     * @return the sequence or -1 if the feed was closed meanwhile
+     */
+    private long claim() {
+        long sequence = next.getAndIncrement();
+        long wrap = sequence - events.length;
+        if (wrap > gatingSequence) {
+            while (wrap > gate()) {
+                if (closed)
+                    return -1;
+                LockSupport.parkNanos(1L);
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * Claims the next sequence if its entry was read by every handler
+     * @return the sequence or -1 if the ring is full
+     */
+    private long tryClaim() {
+        long sequence;
+        do {
+            sequence = next.get();
+            long wrap = sequence - events.length;
+            if (wrap > gatingSequence && wrap > gate())
+                return -1;
+        } while (!next.compareAndSet(sequence, sequence + 1));
+        return sequence;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return the number of events dropped because the ring was full, with
+     * the DROP policy or with the BLOCK policy once the feed is closed
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of events a handler failed to handle
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Stops the handler threads once they have handled the events published
+     * before, and waits for them unless interrupted
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            for (Consumer consumer : consumers) {
+                consumer.thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
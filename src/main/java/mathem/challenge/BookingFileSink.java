@@ -0,0 +1,60 @@
+package mathem.challenge;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Handler of a BookingFeed appending the events to a local file as JSON
+ * Lines, such as
+ * {"sequence":0,"type":"BOOKED","deliveryDay":"2020-05-12","hour":9,
+ * "productId":"de305d54-75b4-431b-adb2-eb6b9e546014"}
+ * The events are buffered and the file is flushed once per batch of the
+ * feed.
+ */
+public class BookingFileSink implements BookingFeed.Handler, Closeable {
+    private final Writer out;
+
+    /**
+     * Opens the file at the given path, creating it if it does not exist
+     * and appending to it otherwise
+     * @param path - the path of the file
+     * @throws IOException if the file cannot be opened
+     */
+    public BookingFileSink(Path path) throws IOException {
+        this.out = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    @Override
+    public void onEvent(BookingEvent event, boolean endOfBatch)
+    throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        writer.setHtmlSafe(true);
+        writer.setSerializeNulls(false);
+        writer.beginObject();
+        writer.name("sequence").value(event.getSequence());
+        writer.name("type").value(event.getType().name());
+        writer.name("deliveryDay").value(event.getDeliveryDay().toString());
+        writer.name("hour").value(event.getHour());
+        UUID productId = event.getProductId();
+        writer.name("productId").value(productId == null ? null
+            : productId.toString());
+        writer.endObject();
+        out.write('\n');
+        if (endOfBatch)
+            out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
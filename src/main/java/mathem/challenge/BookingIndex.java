@@ -0,0 +1,272 @@
+package mathem.challenge;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Index of the booked seats of a SlotStore by product, so that a booking is
+ * found from its product to be cancelled without scanning the store.
+ *
+ * The index is bucketed by day like the store: a ring of capacityDays + 1
+ * buckets, each holding the bookings of one day as a map from product to the
+ * locations of its seats that day. A location packs the epoch day, the slot
+ * index and the seat index in a long, and is kept with the sequence of its
+ * booking so that the most recent booking of a product is found across the
+ * days. The bookings of a product on a day are guarded by their own lock, so
+ * the bookings of different products do not contend.
+ *
+ * A bucket is opened by the first booking of its day and dropped as a whole
+ * when the store retires its day, so moving to a new day costs one write
+ * per retired day however many products are indexed. A location popped is
+ * still checked against the store by the caller.
+ */
+final class BookingIndex {
+    static final long NO_BOOKING = -1;
+    private static final int SEATS_PER_DAY = SlotStore.SLOTS_PER_DAY
+    * SlotStore.MAX_SLOT_CAPACITY;
+
+    private final int buckets;
+    private final AtomicReferenceArray<Day> days;
+
+    /**
+     * The bookings of one day by product
+     */
+    private static final class Day {
+        private final long epochDay;
+        private final ConcurrentHashMap<UUID, Bookings> products =
+        new ConcurrentHashMap<UUID, Bookings>();
+
+        private Day(long epochDay) {
+            this.epochDay = epochDay;
+        }
+    }
+
+    /**
+     * The locations of the booked seats of a product on one day, with the
+     * sequences of their bookings
+     */
+    private static final class Bookings {
+        private long[] locations = new long[1];
+        private long[] sequences = new long[1];
+        private int size;
+        // Set once the empty bookings are removed from their day, the
+        // writers holding them then look the product up again
+        private boolean removed;
+
+        /**
+         * @return the index of the most recent booking
+         */
+        private int latest() {
+            int latest = 0;
+            for (int i = 1; i < size; i++) {
+                if (sequences[i] > sequences[latest])
+                    latest = i;
+            }
+            return latest;
+        }
+
+        private long take(int i) {
+            long location = locations[i];
+            size--;
+            locations[i] = locations[size];
+            sequences[i] = sequences[size];
+            return location;
+        }
+    }
+
+    /**
+     * @param capacityDays - the number of days held by the store at a time
+     */
+    BookingIndex(int capacityDays) {
+        this.buckets = capacityDays + 1;
+        this.days = new AtomicReferenceArray<Day>(buckets);
+    }
+
+    static long location(long epochDay, int slotIndex, int seat) {
+        return epochDay * SEATS_PER_DAY + slotIndex * SlotStore.MAX_SLOT_CAPACITY
+        + seat;
+    }
+
+    static long epochDay(long location) {
+        return location / SEATS_PER_DAY;
+    }
+
+    static int slotIndex(long location) {
+        return (int) (location % SEATS_PER_DAY) / SlotStore.MAX_SLOT_CAPACITY;
+    }
+
+    static int seat(long location) {
+        return (int) (location % SlotStore.MAX_SLOT_CAPACITY);
+    }
+
+    private int bucket(long epochDay) {
+        return (int) Math.floorMod(epochDay, (long) buckets);
+    }
+
+    /**
+     * @return the bucket of the day or null if it is not open
+     */
+    private Day day(long epochDay) {
+        Day day = days.get(bucket(epochDay));
+        return day != null && day.epochDay == epochDay ? day : null;
+    }
+
+    /**
+     * @return the bucket of the day, opened if the bucket holds an earlier
+     * day, or null if it holds a later day
+     */
+    private Day open(long epochDay) {
+        int bucket = bucket(epochDay);
+        while (true) {
+            Day day = days.get(bucket);
+            if (day != null && day.epochDay >= epochDay)
+                return day.epochDay == epochDay ? day : null;
+            days.compareAndSet(bucket, day, new Day(epochDay));
+        }
+    }
+
+    /**
+     * Adds the location of a booked seat of a product
+     * @param productId - the id of the product
+     * @param location - the location of the seat
+     * @param sequence - the sequence of the booking, higher for the later
+     * bookings
+     */
+    void add(UUID productId, long location, long sequence) {
+        Day day = open(epochDay(location));
+        if (day == null)
+            return;
+        while (true) {
+            Bookings bookings = day.products.computeIfAbsent(productId,
+            id -> new Bookings());
+            synchronized (bookings) {
+                if (bookings.removed)
+                    continue;
+                if (bookings.size == bookings.locations.length) {
+                    int length = 2 * bookings.size;
+                    bookings.locations = Arrays.copyOf(
+                        bookings.locations, length);
+                    bookings.sequences = Arrays.copyOf(
+                        bookings.sequences, length);
+                }
+                bookings.locations[bookings.size] = location;
+                bookings.sequences[bookings.size] = sequence;
+                bookings.size++;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes the bookings of a product from their day if they are empty,
+     * with their lock held
+     */
+    private static void removeIfEmpty(Day day, UUID productId,
+                                      Bookings bookings) {
+        if (bookings.size == 0) {
+            bookings.removed = true;
+            day.products.remove(productId, bookings);
+        }
+    }
+
+    /**
+     * Removes the location of the most recent booking of a product, looking
+     * it up in each day from firstDay to lastDay
+     * @param productId - the id of the product
+     * @param firstDay - the epoch day of the first day held by the store
+     * @param lastDay - the epoch day of the last day with a booking
+     * @return the location of the seat or NO_BOOKING if the product has no
+     * booking
+     */
+    long remove(UUID productId, long firstDay, long lastDay) {
+        while (true) {
+            Day latestDay = null;
+            Bookings latest = null;
+            long latestSequence = Long.MIN_VALUE;
+            for (long epochDay = firstDay; epochDay <= lastDay; epochDay++) {
+                Day day = day(epochDay);
+                Bookings bookings = day == null ? null
+                    : day.products.get(productId);
+                if (bookings == null)
+                    continue;
+                synchronized (bookings) {
+                    if (bookings.size == 0)
+                        continue;
+                    long sequence = bookings.sequences[bookings.latest()];
+                    if (sequence > latestSequence) {
+                        latestDay = day;
+                        latest = bookings;
+                        latestSequence = sequence;
+                    }
+                }
+            }
+            if (latest == null)
+                return NO_BOOKING;
+            synchronized (latest) {
+                // Retried if another cancellation took the booking meanwhile
+                int i = latest.size == 0 ? -1 : latest.latest();
+                if (i >= 0 && latest.sequences[i] == latestSequence) {
+                    long location = latest.take(i);
+                    removeIfEmpty(latestDay, productId, latest);
+                    return location;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a given location of a product, such as the one of a booking
+     * whose cancellation is replayed
+     * @param productId - the id of the product
+     * @param location - the location of the seat
+     * @return true if the location was indexed for the product
+     */
+    boolean remove(UUID productId, long location) {
+        Day day = day(epochDay(location));
+        Bookings bookings = day == null ? null : day.products.get(productId);
+        if (bookings == null)
+            return false;
+        synchronized (bookings) {
+            for (int i = 0; i < bookings.size; i++) {
+                if (bookings.locations[i] == location) {
+                    bookings.take(i);
+                    removeIfEmpty(day, productId, bookings);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Drops the buckets of the days retired by the store, one write per day
+     * @param fromDay - the epoch day of the first day held by the store
+     * before it moved
+     * @param toDay - the epoch day of the first day held by the store
+     */
+    void retire(long fromDay, long toDay) {
+        for (long epochDay = Math.max(fromDay, toDay - buckets);
+            epochDay < toDay; epochDay++) {
+            int bucket = bucket(epochDay);
+            Day day = days.get(bucket);
+            if (day != null && day.epochDay < toDay)
+                days.compareAndSet(bucket, day, null);
+        }
+    }
+
+    /**
+     * @return the number of products with bookings, counted once per day
+     * they have bookings on
+     */
+    int size() {
+        int size = 0;
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            Day day = days.get(bucket);
+            if (day != null)
+                size += day.products.size();
+        }
+        return size;
+    }
+}
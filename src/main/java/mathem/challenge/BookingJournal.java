@@ -0,0 +1,353 @@
+package mathem.challenge;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the slot bookings of a DeliveryService, replayed
+ * when the service starts so that a restart does not lose the bookings.
+ *
+ * The journal is a binary file starting with a header, followed by one
+ * length-prefixed record per booking or cancellation: the length of the
+ * payload, its CRC32 and the payload holding the type of the record, the
+ * epoch day, the slot index in the day and the two longs of the product
+ * UUID. A record torn by a crash fails its length or checksum and is cut
+ * when the journal is opened.
+ *
+ * Records are written and synced by a single writer thread. The records
+ * appended while it syncs are batched into the next write, so one fsync
+ * commits the bookings of every concurrent checkout (group commit). In SYNC
+ * durability the booking thread waits until its record is synced, in ASYNC
+ * durability it returns as soon as the record is queued. The records wait
+ * in a buffer of BUFFER_SIZE bytes, when it is full an append waits for the
+ * writer to take it, so a slow disk holds the bookings back instead of
+ * letting the records pile up in memory.
+ */
+public class BookingJournal implements Closeable {
+    public static enum Durability { SYNC, ASYNC };
+
+    private static final int MAGIC = 0x4d484a4c;
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final byte BOOKED = 1;
+    private static final byte CANCELLED = 2;
+    private static final int PAYLOAD_LENGTH = 26;
+    private static final int RECORD_LENGTH = 8 + PAYLOAD_LENGTH;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final Durability durability;
+    private final long replayEnd;
+    private final Thread writer;
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer pending = ByteBuffer.allocate(BUFFER_SIZE);
+    private ByteBuffer flushing = ByteBuffer.allocate(BUFFER_SIZE);
+    private long appended;
+    private long durable;
+    private IOException failure;
+    private boolean closed;
+
+    /**
+     * Receives the bookings and cancellations of the journal when it is
+     * replayed, in the order they were appended
+     */
+    public interface Replayer {
+        /**
+         * @param epochDay - the epoch day of the booked slot
+         * @param slotIndex - the index of the slot in the day
+         * @param msb - the most significant bits of the product UUID
+         * @param lsb - the least significant bits of the product UUID
+         */
+        void booked(long epochDay, int slotIndex, long msb, long lsb);
+
+        /**
+         * @param epochDay - the epoch day of the slot of the cancelled
+         * booking
+         * @param slotIndex - the index of the slot in the day
+         * @param msb - the most significant bits of the product UUID
+         * @param lsb - the least significant bits of the product UUID
+         */
+        void cancelled(long epochDay, int slotIndex, long msb, long lsb);
+    }
+
+    private BookingJournal(FileChannel channel, Durability durability)
+    throws IOException {
+        this.channel = channel;
+        this.durability = durability;
+        this.replayEnd = validate();
+        channel.truncate(replayEnd);
+        channel.position(replayEnd);
+        this.writer = new Thread(this::write, "booking-journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Opens the journal at the given path, creating it if it does not exist
+     * and cutting a record torn by a crash at its end
+     * @param path - the path of the journal file
+     * @param durability - SYNC to wait for each booking to be synced to
+     * disk, ASYNC to sync the bookings in the background
+     * @return the opened BookingJournal
+     * @throws IOException if the file cannot be opened or is not a journal
+     */
+    public static BookingJournal open(Path path, Durability durability)
+    throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            return new BookingJournal(channel, durability);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Checks the header, writing it to a new journal, and returns the end of
+     * the last complete record
+     */
+    private long validate() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        if (channel.size() < HEADER_LENGTH) {
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            channel.write(header, 0);
+            channel.force(true);
+            return HEADER_LENGTH;
+        }
+        channel.read(header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt() != VERSION)
+            throw new IOException("Not a booking journal");
+        long position = HEADER_LENGTH;
+        ByteBuffer record = ByteBuffer.allocate(RECORD_LENGTH);
+        CRC32 check = new CRC32();
+        while (true) {
+            record.clear();
+            int read = 0;
+            while (record.hasRemaining() && read >= 0) {
+                read = channel.read(record, position + record.position());
+            }
+            if (record.hasRemaining())
+                return position;
+            record.flip();
+            int length = record.getInt();
+            int checksum = record.getInt();
+            check.reset();
+            check.update(record.array(), 8, PAYLOAD_LENGTH);
+            if (length != PAYLOAD_LENGTH || checksum != (int) check.getValue())
+                return position;
+            position += RECORD_LENGTH;
+        }
+    }
+
+    /**
+     * Replays the bookings and cancellations recorded when the journal was
+     * opened, in the order they were appended
+     * @param replayer - the Replayer to call for each record
+     * @throws IOException if the journal cannot be read
+     */
+    public void replay(Replayer replayer) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_LENGTH * 1024);
+        long position = HEADER_LENGTH;
+        while (position < replayEnd) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(),
+            replayEnd - position));
+            while (buffer.hasRemaining()) {
+                channel.read(buffer, position + buffer.position());
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                buffer.position(buffer.position() + 8);
+                byte type = buffer.get();
+                long epochDay = buffer.getLong();
+                int slotIndex = buffer.get();
+                long msb = buffer.getLong();
+                long lsb = buffer.getLong();
+                if (type == BOOKED)
+                    replayer.booked(epochDay, slotIndex, msb, lsb);
+                else if (type == CANCELLED)
+                    replayer.cancelled(epochDay, slotIndex, msb, lsb);
+            }
+            position += buffer.limit();
+        }
+    }
+
+    /**
+     * Appends a booking to the journal, waiting for it to be synced to disk
+     * in SYNC durability, and for the writer to take the buffer of pending
+     * records if it is full
+     * @param epochDay - the epoch day of the booked slot
+     * @param slotIndex - the index of the slot in the day
+     * @param msb - the most significant bits of the product UUID
+     * @param lsb - the least significant bits of the product UUID
+     * @throws UncheckedIOException if the journal failed to write
+     */
+    public void append(long epochDay, int slotIndex, long msb, long lsb) {
+        append(BOOKED, epochDay, slotIndex, msb, lsb);
+    }
+
+    /**
+     * Appends the cancellation of a booking to the journal, waiting for it
+     * to be synced to disk in SYNC durability, and for the writer to take
+     * the buffer of pending records if it is full
+     * @param epochDay - the epoch day of the slot of the booking
+     * @param slotIndex - the index of the slot in the day
+     * @param msb - the most significant bits of the product UUID
+     * @param lsb - the least significant bits of the product UUID
+     * @throws UncheckedIOException if the journal failed to write
+     */
+    public void appendCancellation(long epochDay, int slotIndex, long msb,
+                                   long lsb) {
+        append(CANCELLED, epochDay, slotIndex, msb, lsb);
+    }
+
+    private void append(byte type, long epochDay, int slotIndex, long msb,
+                        long lsb) {
+        long sequence;
+        synchronized (this) {
+            awaitRoom();
+            int start = pending.position();
+            pending.position(start + 8);
+            pending.put(type).putLong(epochDay).put((byte) slotIndex)
+            .putLong(msb).putLong(lsb);
+            crc.reset();
+            crc.update(pending.array(), start + 8, PAYLOAD_LENGTH);
+            pending.putInt(start, PAYLOAD_LENGTH);
+            pending.putInt(start + 4, (int) crc.getValue());
+            sequence = ++appended;
+            notifyAll();
+        }
+        if (durability == Durability.SYNC)
+            awaitDurable(sequence);
+    }
+
+    /**
+     * Waits until every booking appended so far is synced to disk
+     * @throws UncheckedIOException if the journal failed to write
+     */
+    public void flush() {
+        long sequence;
+        synchronized (this) {
+            sequence = appended;
+        }
+        awaitDurable(sequence);
+    }
+
+    private synchronized void awaitDurable(long sequence) {
+        boolean interrupted = false;
+        while (durable < sequence && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        if (durable < sequence)
+            throw new UncheckedIOException(failure);
+    }
+
+    /**
+     * Waits until pending has room for a record, the caller holding the
+     * monitor
+     */
+    private void awaitRoom() {
+        boolean interrupted = false;
+        while (pending.remaining() < RECORD_LENGTH && failure == null
+            && !closed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        checkOpen();
+    }
+
+    private void checkOpen() {
+        if (failure != null)
+            throw new UncheckedIOException(failure);
+        if (closed)
+            throw new IllegalStateException("Booking journal is closed");
+    }
+
+    /**
+     * The loop of the writer thread: swaps the buffer of pending records with
+     * the flushed one, writes it and syncs once for the whole batch
+     */
+    private void write() {
+        while (true) {
+            long sequence;
+            synchronized (this) {
+                while (pending.position() == 0 && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        closed = true;
+                    }
+                }
+                if (pending.position() == 0)
+                    return;
+                ByteBuffer batch = pending;
+                pending = flushing;
+                flushing = batch;
+                sequence = appended;
+                // Wakes the appends waiting for room in pending
+                notifyAll();
+            }
+            try {
+                flushing.flip();
+                while (flushing.hasRemaining()) {
+                    channel.write(flushing);
+                }
+                flushing.clear();
+                channel.force(false);
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+            synchronized (this) {
+                durable = sequence;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Syncs the pending bookings, stops the writer thread and closes the
+     * journal file
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        if (failure != null)
+            throw failure;
+    }
+}
@@ -0,0 +1,196 @@
+package mathem.challenge;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/**
+ * The calendar of the delivery period, driven by a Clock so that the
+ * current day can be fixed in tests and benchmarks. The beginning of each
+ * day of the period and the beginning and end of each of its delivery slots
+ * are computed once per day in the zone of the clock, daylight saving time
+ * transitions included, and shared by the scheduling hot paths.
+ */
+public class DeliveryCalendar {
+    static final int PERIOD_LENGTH = DeliveryService.PERIOD_LENGTH;
+    static final int FIRST_DELIVERY_SLOT = DeliveryService.FIRST_DELIVERY_SLOT;
+    static final int SLOTS_PER_DAY = DeliveryService.MAX_DELIVERIES;
+    private static final DeliveryCalendar systemDefault =
+    new DeliveryCalendar(Clock.systemDefaultZone());
+
+    private final Clock clock;
+    private final ZoneId zone;
+    private volatile Horizon horizon;
+
+    /**
+     * The instants of the delivery period starting on one day
+     */
+    static final class Horizon {
+        private final LocalDate today;
+        private final long startMillis;
+        private final long endMillis;
+        private final Instant[] dayStarts;
+        private final Instant[] slotBegins;
+        private final Instant[] slotEnds;
+        private final String[] deliveryDates;
+        private final PossibleDays possibleDays;
+
+        private Horizon(LocalDate today, ZoneId zone) {
+            this.today = today;
+            this.dayStarts = new Instant[PERIOD_LENGTH + 1];
+            this.slotBegins = new Instant[PERIOD_LENGTH * SLOTS_PER_DAY];
+            this.slotEnds = new Instant[PERIOD_LENGTH * SLOTS_PER_DAY];
+            this.deliveryDates = new String[PERIOD_LENGTH * SLOTS_PER_DAY];
+            for (int i = 0; i <= PERIOD_LENGTH; i++) {
+                LocalDate day = today.plusDays(i);
+                dayStarts[i] = day.atStartOfDay(zone).toInstant();
+                if (i == PERIOD_LENGTH)
+                    break;
+                for (int j = 0; j < SLOTS_PER_DAY; j++) {
+                    slotBegins[i * SLOTS_PER_DAY + j] = day
+                    .atTime(FIRST_DELIVERY_SLOT + j, 0).atZone(zone)
+                    .toInstant();
+                    slotEnds[i * SLOTS_PER_DAY + j] = day
+                    .atTime(FIRST_DELIVERY_SLOT + j, 0).plusHours(1)
+                    .atZone(zone).toInstant();
+                }
+            }
+            this.startMillis = dayStarts[0].toEpochMilli();
+            this.endMillis = dayStarts[1].toEpochMilli();
+            this.possibleDays = new PossibleDays(today);
+        }
+
+        LocalDate today() {
+            return today;
+        }
+
+        /**
+         * @param day - a day
+         * @return the index of the day within the period or -1 if the day
+         * is not in the period
+         */
+        int indexOf(LocalDate day) {
+            long index = day.toEpochDay() - today.toEpochDay();
+            return index < 0 || index >= PERIOD_LENGTH ? -1 : (int) index;
+        }
+
+        /**
+         * @param index - the index of a day, from 0 to PERIOD_LENGTH
+         * @return the day of the period at the given index
+         */
+        LocalDate day(int index) {
+            return possibleDays.day(index);
+        }
+
+        /**
+         * @param index - the index of a day, from 0 to PERIOD_LENGTH included
+         * for the end of the period
+         * @return the beginning of the day at the given index
+         */
+        Instant dayStart(int index) {
+            return dayStarts[index];
+        }
+
+        /**
+         * @param index - the index of a day of the period
+         * @param hour - the hour of the slot, from FIRST_DELIVERY_SLOT to
+         * LAST_DELIVERY_SLOT
+         * @return the beginning of the delivery slot
+         */
+        Instant slotBegin(int index, int hour) {
+            return slotBegins[index * SLOTS_PER_DAY + hour
+            - FIRST_DELIVERY_SLOT];
+        }
+
+        /**
+         * @param index - the index of a day of the period
+         * @param hour - the hour of the slot, from FIRST_DELIVERY_SLOT to
+         * LAST_DELIVERY_SLOT
+         * @return the end of the delivery slot
+         */
+        Instant slotEnd(int index, int hour) {
+            return slotEnds[index * SLOTS_PER_DAY + hour - FIRST_DELIVERY_SLOT];
+        }
+
+        /**
+         * Returns the ISO-8601 representation of the beginning of a slot in
+         * UTC, computed once per slot
+         * @param index - the index of a day of the period
+         * @param hour - the hour of the slot, from FIRST_DELIVERY_SLOT to
+         * LAST_DELIVERY_SLOT
+         * @return the delivery date of the slot
+         */
+        String deliveryDate(int index, int hour) {
+            int slot = index * SLOTS_PER_DAY + hour - FIRST_DELIVERY_SLOT;
+            String deliveryDate = deliveryDates[slot];
+            if (deliveryDate == null) {
+                deliveryDate = slotBegins[slot].atOffset(ZoneOffset.UTC)
+                .toString();
+                deliveryDates[slot] = deliveryDate;
+            }
+            return deliveryDate;
+        }
+
+        PossibleDays possibleDays() {
+            return possibleDays;
+        }
+    }
+
+    /**
+     * @param clock - the Clock giving the current instant and the zone of
+     * the deliveries
+     */
+    public DeliveryCalendar(Clock clock) {
+        this.clock = clock;
+        this.zone = clock.getZone();
+    }
+
+    /**
+     * Returns the calendar of the system clock in the default time-zone
+     */
+    public static DeliveryCalendar systemDefault() {
+        return systemDefault;
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    /**
+     * Returns the Horizon of the current day, computing it on the first call
+     * of the day
+     */
+    Horizon horizon() {
+        long now = clock.millis();
+        Horizon horizon = this.horizon;
+        if (horizon == null || now < horizon.startMillis
+            || now >= horizon.endMillis) {
+            horizon = new Horizon(LocalDate.ofInstant(clock.instant(), zone),
+            zone);
+            this.horizon = horizon;
+        }
+        return horizon;
+    }
+
+    public LocalDate today() {
+        return horizon().today;
+    }
+
+    /**
+     * @param day - a day
+     * @return the beginning of the day in the zone of the calendar
+     */
+    public Instant startOfDay(LocalDate day) {
+        Horizon horizon = horizon();
+        long index = day.toEpochDay() - horizon.today.toEpochDay();
+        if (index >= 0 && index <= PERIOD_LENGTH)
+            return horizon.dayStarts[(int) index];
+        return day.atStartOfDay(zone).toInstant();
+    }
+}
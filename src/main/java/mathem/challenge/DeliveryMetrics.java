@@ -0,0 +1,206 @@
+package mathem.challenge;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of the hot paths of a DeliveryService and of the requests of the
+ * App it serves, exported as an MBean with register.
+ *
+ * The counters are LongAdders, striped across the threads updating them,
+ * and the latencies are recorded in LatencyHistograms with one atomic
+ * increment. The calls to nextSlot and getSchedule take less time than
+ * reading the clock twice, so only one call in SAMPLING_RATE at random is
+ * timed. Recording is switched off for the DeliveryService with
+ * setEnabled(false), or for every service from the start with the system
+ * property mathem.challenge.metrics=false, leaving one volatile read per
+ * call.
+ */
+public class DeliveryMetrics implements DeliveryMetricsMBean {
+    static final int SAMPLING_RATE = 64;
+    private static final boolean ENABLED = !"false".equals(
+        System.getProperty("mathem.challenge.metrics"));
+
+    private final DeliveryService deliveryService;
+    private final LongAdder scheduledProducts = new LongAdder();
+    private final LongAdder unscheduledProducts = new LongAdder();
+    private final LongAdder daysProbed = new LongAdder();
+    private final LatencyHistogram nextSlot = new LatencyHistogram();
+    private final LatencyHistogram schedule = new LatencyHistogram();
+    private final LatencyHistogram requests = new LatencyHistogram();
+    private ObjectName name;
+    private volatile boolean enabled = ENABLED;
+
+    DeliveryMetrics(DeliveryService deliveryService) {
+        this.deliveryService = deliveryService;
+    }
+
+    /**
+     * @return the current time to pass to the record methods, or 0 when the
+     * metrics are disabled
+     */
+    long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * @return the current time to pass to the record methods for one call
+     * in SAMPLING_RATE, or 0 when the call is not sampled or the metrics are
+     * disabled
+     */
+    long sample() {
+        return enabled && ThreadLocalRandom.current()
+            .nextInt(SAMPLING_RATE) == 0 ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * @param scheduled - the number of products scheduled
+     * @param unscheduled - the number of products that could not be
+     * scheduled
+     * @param probedDays - the number of days looked for a free slot
+     */
+    void recordScheduling(int scheduled, int unscheduled, int probedDays) {
+        if (!enabled)
+            return;
+        if (scheduled != 0)
+            scheduledProducts.add(scheduled);
+        if (unscheduled != 0)
+            unscheduledProducts.add(unscheduled);
+        daysProbed.add(probedDays);
+    }
+
+    void recordNextSlot(long start) {
+        if (start != 0L)
+            nextSlot.record(System.nanoTime() - start);
+    }
+
+    void recordSchedule(long start) {
+        if (start != 0L)
+            schedule.record(System.nanoTime() - start);
+    }
+
+    void recordRequest(long start) {
+        if (start != 0L)
+            requests.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server under
+     * mathem.challenge:type=DeliveryService,name=<name>
+     * @param name - the name of the DeliveryService, such as its depot
+     * @throws JMException if the name is not valid or already registered
+     */
+    public synchronized void register(String name) throws JMException {
+        ObjectName objectName = new ObjectName(
+            "mathem.challenge:type=DeliveryService,name="
+            + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+        objectName);
+        this.name = objectName;
+    }
+
+    /**
+     * Unregisters the metrics from the platform MBean server if they were
+     * registered
+     * @throws JMException if the metrics cannot be unregistered
+     */
+    public synchronized void unregister() throws JMException {
+        if (name == null)
+            return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.unregisterMBean(name);
+        name = null;
+    }
+
+    @Override public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override public long getDeliveries() {
+        return deliveryService.peekDeliveries();
+    }
+
+    @Override public long getScheduledProducts() {
+        return scheduledProducts.sum();
+    }
+
+    @Override public long getUnscheduledProducts() {
+        return unscheduledProducts.sum();
+    }
+
+    @Override public double getMeanDaysProbed() {
+        long products = scheduledProducts.sum() + unscheduledProducts.sum();
+        return products == 0 ? 0 : (double) daysProbed.sum() / products;
+    }
+
+    /**
+     * @return the number of booked slots of each day of the delivery period
+     */
+    @Override public int[] getDayOccupancy() {
+        DeliveryCalendar.Horizon horizon =
+        deliveryService.getCalendar().horizon();
+        int[] occupancy = new int[DeliveryService.PERIOD_LENGTH];
+        for (int i = 0; i < occupancy.length; i++) {
+            occupancy[i] = deliveryService.peekDeliveries(horizon.day(i));
+        }
+        return occupancy;
+    }
+
+    @Override public long getNextSlotCalls() {
+        return nextSlot.count();
+    }
+
+    @Override public double getNextSlotP50() {
+        return micros(nextSlot.percentile(50));
+    }
+
+    @Override public double getNextSlotP99() {
+        return micros(nextSlot.percentile(99));
+    }
+
+    @Override public long getScheduleCalls() {
+        return schedule.count();
+    }
+
+    @Override public double getScheduleP50() {
+        return micros(schedule.percentile(50));
+    }
+
+    @Override public double getScheduleP99() {
+        return micros(schedule.percentile(99));
+    }
+
+    @Override public long getRequests() {
+        return requests.count();
+    }
+
+    @Override public double getRequestP50() {
+        return micros(requests.percentile(50));
+    }
+
+    @Override public double getRequestP99() {
+        return micros(requests.percentile(99));
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    @Override public void reset() {
+        scheduledProducts.reset();
+        unscheduledProducts.reset();
+        daysProbed.reset();
+        nextSlot.reset();
+        schedule.reset();
+        requests.reset();
+    }
+}
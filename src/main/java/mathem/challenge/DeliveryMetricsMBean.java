@@ -0,0 +1,42 @@
+package mathem.challenge;
+
+/**
+ * Management interface of the DeliveryMetrics of a DeliveryService. The
+ * latencies are in microseconds and the NextSlot and Schedule calls are the
+ * sampled ones.
+ */
+public interface DeliveryMetricsMBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getDeliveries();
+
+    long getScheduledProducts();
+
+    long getUnscheduledProducts();
+
+    double getMeanDaysProbed();
+
+    int[] getDayOccupancy();
+
+    long getNextSlotCalls();
+
+    double getNextSlotP50();
+
+    double getNextSlotP99();
+
+    long getScheduleCalls();
+
+    double getScheduleP50();
+
+    double getScheduleP99();
+
+    long getRequests();
+
+    double getRequestP50();
+
+    double getRequestP99();
+
+    void reset();
+}
@@ -0,0 +1,157 @@
+package mathem.challenge;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Long-running HTTP front end of an App, built on the HTTP server of the JDK.
+ * The services of the depots and their caches stay warm across requests.
+ *
+ * POST /delivery-dates with the form body postcode=12345&products=P1,P2
+ * schedules the delivery of the named products of the catalog and answers
+ * the JSON array printed by App.listDeliveryDates. Scheduling books seats,
+ * so the other methods, GET included, are answered 405. A body longer than
+ * MAX_BODY_LENGTH bytes is answered 413 without being read further.
+ *
+ * Each request runs on its own virtual thread when the JDK has them, on a
+ * thread of a cached pool otherwise.
+ */
+public class DeliveryServer implements Closeable {
+    static final String PATH = "/delivery-dates";
+    // Far above the form of any cart of the catalog
+    static final int MAX_BODY_LENGTH = 64 * 1024;
+
+    private final App app;
+    private final ProductCatalog catalog;
+    private final ExecutorService executor;
+    private final HttpServer server;
+
+    /**
+     * Creates and starts a DeliveryServer
+     * @param app - the App to schedule the deliveries with
+     * @param catalog - the ProductCatalog to find the products by name in
+     * @param address - the address to listen on, with port 0 for any free
+     * port
+     * @throws IOException if the server cannot listen on the address
+     */
+    public DeliveryServer(App app, ProductCatalog catalog,
+                          InetSocketAddress address) throws IOException {
+        this.app = app;
+        this.catalog = catalog;
+        this.executor = requestExecutor();
+        this.server = HttpServer.create(address, 0);
+        this.server.createContext(PATH, this::handle);
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    /**
+     * Returns an executor running each task on a new virtual thread, looked
+     * up by reflection so that the server also runs on JDKs without virtual
+     * threads, where a cached thread pool is returned instead
+     */
+    static ExecutorService requestExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+            .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                sendError(exchange, 405, "Method not allowed");
+                return;
+            }
+            String postcode = null;
+            List<Product> products = new ArrayList<Product>();
+            byte[] body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = in.readNBytes(MAX_BODY_LENGTH + 1);
+            }
+            if (body.length > MAX_BODY_LENGTH) {
+                sendError(exchange, 413, "Body longer than " + MAX_BODY_LENGTH
+                + " bytes");
+                return;
+            }
+            String form = new String(body, StandardCharsets.UTF_8);
+            for (String parameter : form.split("&")) {
+                int separator = parameter.indexOf('=');
+                if (separator < 0)
+                    continue;
+                String name = decode(parameter.substring(0, separator));
+                String value = decode(parameter.substring(separator + 1));
+                if (name.equals("postcode")) {
+                    postcode = value;
+                } else if (name.equals("products")) {
+                    for (String productName : value.split(",")) {
+                        if (productName.isEmpty())
+                            continue;
+                        Product product = catalog.get(productName);
+                        if (product == null) {
+                            sendError(exchange, 400, "Unknown product "
+                            + productName);
+                            return;
+                        }
+                        products.add(product);
+                    }
+                }
+            }
+            if (postcode == null || postcode.isEmpty()) {
+                sendError(exchange, 400, "Missing postcode");
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type",
+            "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                app.writeDeliveryDates(postcode, products, out);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String decode(String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+
+    private static void sendError(HttpExchange exchange, int status,
+                                  String message) throws IOException {
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type",
+        "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Stops the server and the executor of its requests
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdown();
+    }
+}
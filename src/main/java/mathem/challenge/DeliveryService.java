@@ -1,46 +1,235 @@
 package mathem.challenge;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.time.DayOfWeek;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.time.OffsetDateTime;
 import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Optional;
-import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.javatuples.Pair;
 
 /**
  * We need a delivery service to keep track of which "delivery slots" are
  * available for each days of the delivery period.
+ *
+ * The service is safe for use by concurrent checkouts: the seats of a slot
+ * are booked by compare-and-set on the bitmask of that slot only, so bookings
+ * on different slots run in parallel and a slot never takes more deliveries
+ * than its capacity.
+ * Bookings are kept in a compact SlotStore, DeliverySlot objects are only
+ * created on demand as views of the store. The store holds the days from the
+ * current day to CAPACITY_DAYS later and moves on the first call of each day,
+ * dropping the bookings of the past days.
+ * A seat can be held for a while before it is booked, the expiry of the
+ * holds is tracked by a TimingWheel moved by the calls to the service.
+ * The bookings of products are indexed by product id in a BookingIndex to be
+ * cancelled or rescheduled.
+ * The queries on the availability of the delivery period read an immutable
+ * AvailabilitySnapshot, swapped for a new one after the seats change.
+ * The bookings and cancellations can be published to the handlers of a
+ * BookingFeed, off the booking thread.
+ * The slots added by addSlot that the store cannot hold, off the hourly
+ * grid or on the days outside the store, are kept aside by beginning.
  */
 public class DeliveryService {
     private static final EnumSet<DayOfWeek> greenDays;
-    private static final int FIRST_DELIVERY_SLOT = 9;
-    private static final int LAST_DELIVERY_SLOT = 19;
-    private static final int MAX_DELIVERIES = 1
+    private static final int greenMask;
+    static final int FIRST_DELIVERY_SLOT = 9;
+    static final int LAST_DELIVERY_SLOT = 19;
+    static final int MAX_DELIVERIES = 1
     + LAST_DELIVERY_SLOT - FIRST_DELIVERY_SLOT;
-    private SortedSet<DeliverySlot> deliveries =
-    new TreeSet<DeliverySlot>(new Comparator<DeliverySlot>() {
-        @Override public int compare(DeliverySlot o1, DeliverySlot o2) {
-            return o1.begin.compareTo(o2.begin);
-        }
-    });
+    private static final int NO_SLOT = SlotStore.NO_SLOT;
+    static final int PERIOD_LENGTH = 14;
+    // The days held by the store, from the current day
+    static final int CAPACITY_DAYS = 366 + PERIOD_LENGTH;
+    // The holds expire within a tick, on a wheel turning in about 17 minutes
+    static final long HOLD_TICK_MILLIS = 1000;
+    static final int HOLD_TICKS_PER_WHEEL = 1024;
+    private final DeliveryCalendar calendar;
+    private final SlotStore store;
+    private final BookingJournal journal;
+    private final TimingWheel<SlotHold> holds;
+    private final BookingIndex index = new BookingIndex(CAPACITY_DAYS);
+    // The slots added by addSlot outside the store, by beginning
+    private final ConcurrentSkipListMap<Instant, DeliverySlot> otherSlots =
+    new ConcurrentSkipListMap<Instant, DeliverySlot>();
+    // The version of the deliveries, and of the seats taken by deliveries
+    // or holds
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicLong seatVersion = new AtomicLong();
+    private volatile ScheduleView scheduleView;
+    private final AtomicReference<AvailabilitySnapshot> availability =
+    new AtomicReference<AvailabilitySnapshot>();
+    private volatile BookingFeed feed;
+    private final DeliveryMetrics metrics = new DeliveryMetrics(this);
 
     // Green days are defined as FRIDAY, SATURDAY and SUNDAY
     static {
         greenDays = EnumSet.range(DayOfWeek.FRIDAY, DayOfWeek.SUNDAY);
         greenDays.add(DayOfWeek.TUESDAY);
+        int mask = 0;
+        for (DayOfWeek greenDay : greenDays) {
+            mask |= 1 << greenDay.ordinal();
+        }
+        greenMask = mask;
+    }
+
+    /**
+     * Creates a DeliveryService following the system clock in the default
+     * time-zone
+     */
+    public DeliveryService() {
+        this(DeliveryCalendar.systemDefault());
+    }
+
+    /**
+     * Creates a DeliveryService following the given calendar
+     * @param calendar - the DeliveryCalendar giving the current day and the
+     * instants of the delivery slots
+     */
+    public DeliveryService(DeliveryCalendar calendar) {
+        this(calendar, 1);
+    }
+
+    /**
+     * Creates a DeliveryService following the given calendar, each slot
+     * taking up to slotCapacity deliveries
+     * @param calendar - the DeliveryCalendar giving the current day and the
+     * instants of the delivery slots
+     * @param slotCapacity - the number of deliveries of a slot, such as the
+     * number of vans of the slot times their capacity, up to 64
+     */
+    public DeliveryService(DeliveryCalendar calendar, int slotCapacity) {
+        this.calendar = calendar;
+        this.store = new SlotStore(calendar.today().toEpochDay(),
+        CAPACITY_DAYS, slotCapacity);
+        this.journal = null;
+        this.holds = new TimingWheel<SlotHold>(HOLD_TICK_MILLIS,
+        HOLD_TICKS_PER_WHEEL, calendar.getClock().millis(), this::expire);
+    }
+
+    /**
+     * Creates a DeliveryService following the given calendar and recording
+     * its bookings in a journal. The bookings of the journal are replayed
+     * first, except the ones of the days before the current day. A booking
+     * the journal fails to record is released before the error of the
+     * journal is thrown.
+     * @param calendar - the DeliveryCalendar giving the current day and the
+     * instants of the delivery slots
+     * @param journal - the BookingJournal to replay and append bookings to
+     * @throws IOException if the journal cannot be replayed
+     */
+    public DeliveryService(DeliveryCalendar calendar, BookingJournal journal)
+    throws IOException {
+        this(calendar, 1, journal);
+    }
+
+    /**
+     * Creates a DeliveryService following the given calendar, each slot
+     * taking up to slotCapacity deliveries, and recording its bookings in a
+     * journal. The bookings of the journal are replayed first, except the
+     * ones of the days before the current day. A booking the journal fails
+     * to record is released before the error of the journal is thrown.
+     * @param calendar - the DeliveryCalendar giving the current day and the
+     * instants of the delivery slots
+     * @param slotCapacity - the number of deliveries of a slot, up to 64
+     * @param journal - the BookingJournal to replay and append bookings to
+     * @throws IOException if the journal cannot be replayed
+     */
+    public DeliveryService(DeliveryCalendar calendar, int slotCapacity,
+                           BookingJournal journal) throws IOException {
+        this.calendar = calendar;
+        this.store = new SlotStore(calendar.today().toEpochDay(),
+        CAPACITY_DAYS, slotCapacity);
+        journal.replay(replayer());
+        this.journal = journal;
+        this.holds = new TimingWheel<SlotHold>(HOLD_TICK_MILLIS,
+        HOLD_TICKS_PER_WHEEL, calendar.getClock().millis(), this::expire);
+    }
+
+    /**
+     * Creates a DeliveryService following the given calendar with the slot
+     * capacity and the bookings of a snapshot written by writeSnapshot,
+     * except the bookings of the days before the current day
+     * @param calendar - the DeliveryCalendar giving the current day and the
+     * instants of the delivery slots
+     * @param path - the path of the snapshot file
+     * @return the restored DeliveryService
+     * @throws IOException if the file cannot be read or is not a valid
+     * snapshot
+     */
+    public static DeliveryService fromSnapshot(DeliveryCalendar calendar,
+                                               Path path) throws IOException {
+        DeliveryService service = new DeliveryService(calendar,
+        ScheduleSnapshot.slotCapacity(path));
+        ScheduleSnapshot.read(path, service.replayer());
+        return service;
+    }
+
+    /**
+     * @return a Replayer restoring the bookings and cancellations of a
+     * journal or a snapshot into the service
+     */
+    private BookingJournal.Replayer replayer() {
+        return new BookingJournal.Replayer() {
+            @Override
+            public void booked(long epochDay, int slotIndex, long msb,
+                               long lsb) {
+                restore(epochDay, slotIndex, msb, lsb);
+            }
+
+            @Override
+            public void cancelled(long epochDay, int slotIndex, long msb,
+                                  long lsb) {
+                restoreCancellation(epochDay, slotIndex, msb, lsb);
+            }
+        };
+    }
+
+    /**
+     * Books a slot restored from a journal or a snapshot
+     */
+    private void restore(long epochDay, int slotIndex, long msb, long lsb) {
+        int dayIndex = store.dayIndex(epochDay);
+        int seat = dayIndex < 0 ? NO_SLOT
+            : store.book(dayIndex, slotIndex, msb, lsb);
+        if (seat != NO_SLOT) {
+            index(epochDay, slotIndex, seat, msb != 0L || lsb != 0L
+                ? new UUID(msb, lsb) : null, booked());
+        }
+    }
+
+    /**
+     * Frees the seat of a booking cancelled in the journal and removes it
+     * from the index
+     */
+    private void restoreCancellation(long epochDay, int slotIndex, long msb,
+                                     long lsb) {
+        int dayIndex = store.dayIndex(epochDay);
+        int seat = dayIndex < 0 ? NO_SLOT
+            : store.bookedSeat(dayIndex, slotIndex, msb, lsb);
+        if (seat != NO_SLOT) {
+            store.release(dayIndex, slotIndex, seat);
+            booked();
+            index.remove(new UUID(msb, lsb), BookingIndex.location(epochDay,
+                slotIndex, seat));
+        }
     }
 
     /**
@@ -65,11 +254,10 @@ public class DeliveryService {
             return this.isGreen;
         }
 
-        private DeliverySlot(Instant begin, Instant end) {
+        private DeliverySlot(Instant begin, Instant end, boolean isGreen) {
             this.begin = begin;
             this.end = end;
-            this.isGreen = greenDays.contains(LocalDate
-            .ofInstant(this.begin, ZoneId.systemDefault()).getDayOfWeek());
+            this.isGreen = isGreen;
         }
 
         /**
@@ -80,13 +268,12 @@ public class DeliveryService {
          */
         private DeliverySlot(LocalDateTime datetime) {
             Instant begin = Instant.from(datetime
-            .atZone(ZoneId.systemDefault()));
+            .atZone(calendar.getZone()));
             Instant end = Instant.from(datetime.plusHours(1)
-            .atZone(ZoneId.systemDefault()));
+            .atZone(calendar.getZone()));
             this.begin = begin;
             this.end = end;
-            this.isGreen = greenDays.contains(LocalDate
-            .ofInstant(this.begin, ZoneId.systemDefault()).getDayOfWeek());
+            this.isGreen = greenDays.contains(datetime.getDayOfWeek());
         }
 
         private boolean overlaps(Instant begin, Instant end) {
@@ -113,20 +300,101 @@ public class DeliveryService {
     }
 
     /**
-     * Create a new DeliverySlot object based on the ldt parameter and insert
-     * it into the DeliveryService set of deliveries
+     * Books a seat of the hourly delivery slot beginning at ldt, without
+     * product. A slot the store cannot hold, off the hourly slots from
+     * FIRST_DELIVERY_SLOT to LAST_DELIVERY_SLOT or on a day outside the
+     * store, is kept aside once per beginning instead. It is counted and
+     * listed in the schedule but takes no seat, and is neither journaled
+     * nor published. An hourly slot kept aside for a day after the store
+     * books its seat when the store opens the day, if it is still free.
      * @param ldt - the LocalDateTime object to define the created DeliverSlot
      * beginning and end instants from
-     * @return a boolean value equal to true if the DeliverySlot was added to
-     * the set of deliveries.
+     * @return a boolean value equal to true if the slot had a free seat, now
+     * added to the set of deliveries.
      */
     public boolean addSlot(LocalDateTime ldt) {
-        DeliverySlot slot = new DeliverySlot(ldt);
-        return deliveries.add(slot);
+        advance(calendar.today());
+        int hour = ldt.getHour();
+        int dayIndex = store.dayIndex(ldt.toLocalDate().toEpochDay());
+        if (hour < FIRST_DELIVERY_SLOT || hour > LAST_DELIVERY_SLOT
+            || !ldt.toLocalTime().equals(LocalTime.of(hour, 0))
+            || dayIndex < 0) {
+            DeliverySlot slot = new DeliverySlot(ldt);
+            if (otherSlots.putIfAbsent(slot.begin, slot) != null)
+                return false;
+            version.incrementAndGet();
+            return true;
+        }
+        int slotIndex = hour - FIRST_DELIVERY_SLOT;
+        int seat = store.book(dayIndex, slotIndex, 0L, 0L);
+        if (seat == NO_SLOT)
+            return false;
+        booked(dayIndex, slotIndex, seat, null, 0L, 0L);
+        return true;
     }
 
-    public boolean addSlot(DeliverySlot slot) {
-        return deliveries.add(slot);
+    /**
+     * Drops the slots kept aside before the current day, and books the
+     * seats of the hourly ones of the days the store just opened
+     * @param fromDay - the epoch day of the first day held by the store
+     * before it moved
+     * @param toDay - the epoch day of the first day held by the store
+     */
+    private void moveOtherSlots(long fromDay, long toDay) {
+        otherSlots.headMap(startOfDay(toDay)).clear();
+        ZoneId zone = calendar.getZone();
+        for (DeliverySlot slot : otherSlots.subMap(startOfDay(Math.max(
+            fromDay, toDay - CAPACITY_DAYS) + CAPACITY_DAYS),
+            startOfDay(toDay + CAPACITY_DAYS)).values()) {
+            LocalDateTime ldt = LocalDateTime.ofInstant(slot.begin, zone);
+            int hour = ldt.getHour();
+            if (hour < FIRST_DELIVERY_SLOT || hour > LAST_DELIVERY_SLOT
+                || !ldt.toLocalTime().equals(LocalTime.of(hour, 0)))
+                continue;
+            int dayIndex = store.dayIndex(ldt.toLocalDate().toEpochDay());
+            int slotIndex = hour - FIRST_DELIVERY_SLOT;
+            int seat = dayIndex < 0 ? NO_SLOT
+                : store.book(dayIndex, slotIndex, 0L, 0L);
+            if (seat == NO_SLOT)
+                continue;
+            booked(dayIndex, slotIndex, seat, null, 0L, 0L);
+            otherSlots.remove(slot.begin, slot);
+        }
+    }
+
+    private Instant startOfDay(long epochDay) {
+        return LocalDate.ofEpochDay(epochDay).atStartOfDay(calendar.getZone())
+        .toInstant();
+    }
+
+    /**
+     * @param fromDay - the epoch day of the current day
+     * @return the number of slots kept aside from the current day on
+     */
+    private int countOtherSlots(long fromDay) {
+        return otherSlots.isEmpty() ? 0
+            : otherSlots.tailMap(startOfDay(fromDay)).size();
+    }
+
+    /**
+     * Counts the slots kept aside overlapping a day the way the slots were
+     * counted before the store, where a slot beginning at midnight is not
+     * counted on its day
+     * @param day - the day to count, not before the current day
+     */
+    private int countOtherSlots(LocalDate day) {
+        if (otherSlots.isEmpty())
+            return 0;
+        Instant begin = startOfDay(day.toEpochDay());
+        Instant end = startOfDay(day.toEpochDay() + 1);
+        int count = 0;
+        // A slot lasts up to two hours across a change of offset
+        for (DeliverySlot slot : otherSlots.subMap(begin.minus(
+            Duration.ofDays(1)), end).values()) {
+            if (slot.overlaps(begin, end))
+                count++;
+        }
+        return count;
     }
 
     /**
@@ -138,14 +406,441 @@ public class DeliveryService {
      */
     public boolean scheduleDelivery(List<LocalDate> possibleDays,
                                     Product product) {
+        advance(calendar.today());
+        int probedDays = book(possibleDays, product.getProductId());
+        metrics.recordScheduling(probedDays > 0 ? 1 : 0,
+        probedDays > 0 ? 0 : 1, Math.abs(probedDays));
+        return probedDays > 0;
+    }
+
+    /**
+     * Books the first free seat of the possible days for a product
+     * @return the number of days probed, negated if no seat was booked
+     */
+    private int book(List<LocalDate> possibleDays, UUID productId) {
+        long msb = productId.getMostSignificantBits();
+        long lsb = productId.getLeastSignificantBits();
+        int probedDays = 0;
         for (LocalDate day : possibleDays) {
-            if (nextSlot(day).isPresent()) {
-                DeliverySlot slot = nextSlot(day).get();
-                slot.setProductId(product.getProductId());
-                return addSlot(slot);
+            int dayIndex = store.dayIndex(day.toEpochDay());
+            if (dayIndex < 0)
+                continue;
+            probedDays++;
+            int seatCode = store.bookFirstFree(dayIndex, msb, lsb);
+            if (seatCode != NO_SLOT) {
+                booked(dayIndex, seatCode, productId, msb, lsb);
+                return probedDays;
             }
         }
-        return false;
+        return -probedDays;
+    }
+
+    /**
+     * Schedules the delivery of every product in one pass over the delivery
+     * period, the same way scheduleDelivery would for each product with the
+     * days returned by App.possibleDays. The days of the period are located
+     * in the store once for the whole batch, the candidate days of each
+     * product come from the PossibleDays table and the days found full are
+     * skipped for the following products.
+     * @param products - the valid products to schedule the delivery of
+     * @return an array holding, for each product in iteration order, true if
+     * its delivery was scheduled and false otherwise
+     */
+    public boolean[] scheduleDeliveries(Collection<Product> products) {
+        boolean[] scheduled = new boolean[products.size()];
+        DeliveryCalendar.Horizon horizon = calendar.horizon();
+        advance(horizon.today());
+        PossibleDays table = horizon.possibleDays();
+        int[] dayIndexes = new int[PERIOD_LENGTH];
+        int fullDays = 0;
+        for (int i = 0; i < PERIOD_LENGTH; i++) {
+            dayIndexes[i] = store.dayIndex(table.day(i).toEpochDay());
+            if (dayIndexes[i] < 0)
+                fullDays |= 1 << i;
+        }
+        int i = 0;
+        int scheduledCount = 0;
+        int probedDays = 0;
+        for (Product product : products) {
+            UUID productId = product.getProductId();
+            long msb = productId.getMostSignificantBits();
+            long lsb = productId.getLeastSignificantBits();
+            int candidates = table.candidateDays(product) & ~fullDays;
+            while (candidates != 0) {
+                int day = Integer.numberOfTrailingZeros(candidates);
+                candidates &= candidates - 1;
+                probedDays++;
+                int seatCode = store.bookFirstFree(dayIndexes[day], msb, lsb);
+                if (seatCode != NO_SLOT) {
+                    scheduled[i] = true;
+                    booked(dayIndexes[day], seatCode, productId, msb, lsb);
+                    break;
+                }
+                fullDays |= 1 << day;
+            }
+            if (scheduled[i])
+                scheduledCount++;
+            i++;
+        }
+        metrics.recordScheduling(scheduledCount, i - scheduledCount,
+        probedDays);
+        return scheduled;
+    }
+
+    /**
+     * Schedules the delivery of as many products as possible, unlike
+     * scheduleDeliveries where a product with few candidate days can find
+     * them taken by the products before it that could have gone elsewhere.
+     * The days of the products are planned by BatchAssignment as a maximum
+     * flow over the free slots of the period, then booked. When a planned
+     * day was filled meanwhile by a concurrent booking, the product falls
+     * back to its first candidate day with a free slot.
+     * @param products - the valid products to schedule the delivery of
+     * @return an array holding, for each product in iteration order, true if
+     * its delivery was scheduled and false otherwise
+     */
+    public boolean[] assignDeliveries(Collection<Product> products) {
+        boolean[] scheduled = new boolean[products.size()];
+        DeliveryCalendar.Horizon horizon = calendar.horizon();
+        advance(horizon.today());
+        PossibleDays table = horizon.possibleDays();
+        int[] dayIndexes = new int[PERIOD_LENGTH];
+        int[] free = new int[PERIOD_LENGTH];
+        int fullDays = 0;
+        for (int i = 0; i < PERIOD_LENGTH; i++) {
+            dayIndexes[i] = store.dayIndex(table.day(i).toEpochDay());
+            if (dayIndexes[i] < 0)
+                fullDays |= 1 << i;
+            else
+                free[i] = store.freeSeats(dayIndexes[i]);
+        }
+        int[] candidates = new int[scheduled.length];
+        int i = 0;
+        for (Product product : products) {
+            candidates[i++] = table.candidateDays(product) & ~fullDays;
+        }
+        int[] planned = BatchAssignment.plan(candidates, free);
+        i = 0;
+        int scheduledCount = 0;
+        int probedDays = 0;
+        for (Product product : products) {
+            UUID productId = product.getProductId();
+            long msb = productId.getMostSignificantBits();
+            long lsb = productId.getLeastSignificantBits();
+            int day = planned[i];
+            int remaining = candidates[i] & ~fullDays;
+            while (day != BatchAssignment.NO_DAY) {
+                probedDays++;
+                int seatCode = store.bookFirstFree(dayIndexes[day], msb, lsb);
+                if (seatCode != NO_SLOT) {
+                    scheduled[i] = true;
+                    scheduledCount++;
+                    booked(dayIndexes[day], seatCode, productId, msb, lsb);
+                    break;
+                }
+                fullDays |= 1 << day;
+                remaining &= ~fullDays;
+                day = remaining == 0 ? BatchAssignment.NO_DAY
+                    : Integer.numberOfTrailingZeros(remaining);
+            }
+            i++;
+        }
+        metrics.recordScheduling(scheduledCount, i - scheduledCount,
+        probedDays);
+        return scheduled;
+    }
+
+    /**
+     * Holds a seat of a free slot found in the list of possible days
+     * provided, hiding it from the other checkouts until the hold is
+     * confirmed, released or expires. A hold is not a delivery yet, it is
+     * neither part of the schedule nor recorded in the journal.
+     * @param possibleDays - the list of days to find free slots from
+     * @param product - the product to deliver
+     * @param ttl - the time after which the hold expires and the seat is
+     * released if the hold was not confirmed
+     * @return the SlotHold of the held seat or an empty Optional if the days
+     * are full
+     */
+    public Optional<SlotHold> holdDelivery(List<LocalDate> possibleDays,
+                                           Product product, Duration ttl) {
+        UUID productId = product.getProductId();
+        long msb = productId.getMostSignificantBits();
+        long lsb = productId.getLeastSignificantBits();
+        advance(calendar.today());
+        for (LocalDate day : possibleDays) {
+            int dayIndex = store.dayIndex(day.toEpochDay());
+            if (dayIndex < 0)
+                continue;
+            int seatCode = store.holdFirstFree(dayIndex, msb, lsb);
+            if (seatCode != NO_SLOT) {
+                int slotIndex = seatCode / SlotStore.MAX_SLOT_CAPACITY;
+                long expiry = calendar.getClock().millis() + ttl.toMillis();
+                SlotHold hold = new SlotHold(this, day.toEpochDay(), dayIndex,
+                slotIndex, seatCode % SlotStore.MAX_SLOT_CAPACITY, productId,
+                deliveryDate(dayIndex, slotIndex), expiry);
+                booked();
+                holds.schedule(hold, expiry);
+                return Optional.of(hold);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Books the seat of a hold for its product
+     * @param hold - a SlotHold of this service
+     * @return a boolean value equal to true if the hold had not expired or
+     * been released and its seat is now booked
+     */
+    public boolean confirm(SlotHold hold) {
+        checkOwner(hold);
+        if (calendar.getClock().millis() >= hold.expiryMillis) {
+            expire(hold);
+            return false;
+        }
+        if (!hold.settle())
+            return false;
+        store.confirm(hold.dayIndex, hold.slotIndex, hold.seat);
+        UUID productId = hold.getProductId();
+        booked(hold.dayIndex, hold.slotIndex, hold.seat, productId,
+        productId.getMostSignificantBits(),
+        productId.getLeastSignificantBits());
+        return true;
+    }
+
+    /**
+     * Frees the seat of a hold
+     * @param hold - a SlotHold of this service
+     * @return a boolean value equal to true if the hold had not expired or
+     * been confirmed and its seat is now free
+     */
+    public boolean release(SlotHold hold) {
+        checkOwner(hold);
+        if (!hold.settle())
+            return false;
+        free(hold);
+        return true;
+    }
+
+    private void checkOwner(SlotHold hold) {
+        if (hold.deliveryService != this)
+            throw new IllegalArgumentException(hold
+            + " is not a hold of this service");
+    }
+
+    private void expire(SlotHold hold) {
+        if (hold.settle())
+            free(hold);
+    }
+
+    /**
+     * Frees the seat of a settled hold, unless its day was retired
+     */
+    private void free(SlotHold hold) {
+        if (store.dayIndex(hold.epochDay) == hold.dayIndex) {
+            store.releaseHeld(hold.dayIndex, hold.slotIndex, hold.seat);
+            booked();
+        }
+    }
+
+    /**
+     * Cancels the most recent delivery of a product still to come, freeing
+     * its seat for the other checkouts at once. If the journal fails to
+     * record the cancellation, its error is thrown and the delivery stays
+     * booked.
+     * @param productId - the id of the product
+     * @return a boolean value equal to true if a delivery of the product was
+     * cancelled
+     */
+    public boolean cancel(UUID productId) {
+        advance(calendar.today());
+        long location = take(productId);
+        if (location == BookingIndex.NO_BOOKING)
+            return false;
+        try {
+            cancel(location, productId);
+        } catch (RuntimeException e) {
+            reindex(productId, location);
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * Moves the most recent delivery of a product still to come to a free
+     * slot found in the list of possible days provided. The new slot is
+     * booked before the old one is freed, so the delivery is kept where it
+     * was if no possible day has a free slot. If the journal fails to
+     * record the cancellation of the old slot, its error is thrown and the
+     * new slot is given back.
+     * @param productId - the id of the product
+     * @param possibleDays - the list of days to find free slots from
+     * @return a boolean value equal to true if the delivery was moved
+     */
+    public boolean reschedule(UUID productId, List<LocalDate> possibleDays) {
+        advance(calendar.today());
+        long location = take(productId);
+        if (location == BookingIndex.NO_BOOKING)
+            return false;
+        if (book(possibleDays, productId) <= 0) {
+            reindex(productId, location);
+            return false;
+        }
+        try {
+            cancel(location, productId);
+        } catch (RuntimeException e) {
+            long moved = take(productId);
+            if (moved != BookingIndex.NO_BOOKING)
+                release(moved);
+            reindex(productId, location);
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * Indexes again a booking taken from the index and left booked, unless
+     * its day was retired meanwhile
+     */
+    private void reindex(UUID productId, long location) {
+        if (store.dayIndex(BookingIndex.epochDay(location)) >= 0)
+            index.add(productId, location, version.get());
+    }
+
+    /**
+     * Frees the seat of a booking taken from the index, unless its day was
+     * retired
+     */
+    private void release(long location) {
+        int dayIndex = store.dayIndex(BookingIndex.epochDay(location));
+        if (dayIndex >= 0)
+            store.release(dayIndex, BookingIndex.slotIndex(location),
+            BookingIndex.seat(location));
+        booked();
+    }
+
+    /**
+     * Removes the most recent booking of a product from the index, skipping
+     * the ones of the retired days
+     * @return the location of the booked seat or NO_BOOKING
+     */
+    private long take(UUID productId) {
+        long msb = productId.getMostSignificantBits();
+        long lsb = productId.getLeastSignificantBits();
+        while (true) {
+            long location = index.remove(productId, store.firstDay(),
+            store.lastDay());
+            if (location == BookingIndex.NO_BOOKING)
+                return location;
+            int dayIndex = store.dayIndex(BookingIndex.epochDay(location));
+            if (dayIndex >= 0 && store.isBooked(dayIndex,
+                BookingIndex.slotIndex(location), BookingIndex.seat(location),
+                msb, lsb))
+                return location;
+        }
+    }
+
+    /**
+     * Records the cancellation of a booking taken from the index in the
+     * journal if there is one and publishes it to the feed, then frees its
+     * seat. The cancellation is recorded and published first so that the
+     * booking of the freed seat by another checkout comes after it, in the
+     * journal to be replayed on a free seat and in the feed.
+     */
+    private void cancel(long location, UUID productId) {
+        long epochDay = BookingIndex.epochDay(location);
+        int slotIndex = BookingIndex.slotIndex(location);
+        long msb = productId.getMostSignificantBits();
+        long lsb = productId.getLeastSignificantBits();
+        if (journal != null)
+            journal.appendCancellation(epochDay, slotIndex, msb, lsb);
+        BookingFeed feed = this.feed;
+        if (feed != null)
+            feed.publish(BookingEvent.Type.CANCELLED, epochDay, slotIndex, msb,
+            lsb);
+        release(location);
+    }
+
+    /**
+     * @return the new version of the deliveries, the sequence of a booking
+     * in the index
+     */
+    private long booked() {
+        seatVersion.incrementAndGet();
+        return version.incrementAndGet();
+    }
+
+    /**
+     * Moves the days held by the store to start on the current day, drops
+     * the buckets of the retired days from the index and releases the
+     * seats of the expired holds
+     * @param today - the current day of the calendar
+     */
+    private void advance(LocalDate today) {
+        long firstDay = store.firstDay();
+        if (store.advance(today.toEpochDay())) {
+            booked();
+            index.retire(firstDay, today.toEpochDay());
+            if (!otherSlots.isEmpty())
+                moveOtherSlots(firstDay, today.toEpochDay());
+        }
+        holds.expire(calendar.getClock().millis());
+    }
+
+    /**
+     * Accounts for a seat just booked in the store, indexes it by product
+     * and records it in the journal if there is one
+     * @param seatCode - the index of the slot in the day times
+     * SlotStore.MAX_SLOT_CAPACITY plus the index of the seat
+     */
+    private void booked(int dayIndex, int seatCode, UUID productId, long msb,
+                        long lsb) {
+        booked(dayIndex, seatCode / SlotStore.MAX_SLOT_CAPACITY,
+        seatCode % SlotStore.MAX_SLOT_CAPACITY, productId, msb, lsb);
+    }
+
+    /**
+     * The seat is released if the journal fails to record it, so that the
+     * caller of the booking gets the error of the journal and the booking is
+     * not kept in memory only. In SYNC durability the record may still have
+     * reached the disk before the failure, and be replayed on restart. The
+     * booking is published to the feed before it is indexed, so that its
+     * cancellation, which takes it from the index, is published after it.
+     * @param productId - the UUID of the product, whose bits are msb and
+     * lsb, or null for a seat booked without product
+     */
+    private void booked(int dayIndex, int slotIndex, int seat, UUID productId,
+                        long msb, long lsb) {
+        long sequence = booked();
+        long epochDay = store.epochDay(dayIndex);
+        if (journal != null) {
+            try {
+                journal.append(epochDay, slotIndex, msb, lsb);
+            } catch (RuntimeException e) {
+                store.release(dayIndex, slotIndex, seat);
+                booked();
+                throw e;
+            }
+        }
+        BookingFeed feed = this.feed;
+        if (feed != null)
+            feed.publish(BookingEvent.Type.BOOKED, epochDay, slotIndex, msb,
+            lsb);
+        index(epochDay, slotIndex, seat, productId, sequence);
+    }
+
+    /**
+     * Indexes a booked seat by product, with the UUID of the product itself
+     * so that booking allocates no key, except the seats booked without
+     * product by addSlot
+     * @param sequence - the version of the deliveries after the booking
+     */
+    private void index(long epochDay, int slotIndex, int seat,
+                       UUID productId, long sequence) {
+        if (productId != null)
+            index.add(productId, BookingIndex.location(epochDay, slotIndex,
+                seat), sequence);
     }
 
     /**
@@ -156,69 +851,394 @@ public class DeliveryService {
      * @return a DeliverySlot object  representing the next available delivery
      * slot for the given day or null if none was found
      */
-    private Optional<DeliverySlot> nextSlot(LocalDate day) {
-        DeliverySlot slot = null;
-        if (countDeliveries(day) == MAX_DELIVERIES)
-            return Optional.empty();
-        Instant begin = Instant.from(day.atStartOfDay()
-        .atZone(ZoneId.systemDefault()));
-        Instant end = Instant.from(day.plusDays(1).atStartOfDay()
-        .atZone(ZoneId.systemDefault()));
-        Set<DeliverySlot> dayDeliveries = deliveries.stream()
-        .filter(deliverySlot -> deliverySlot.overlaps(begin, end))
-        .collect(Collectors.toSet());
-        for (int i = FIRST_DELIVERY_SLOT; i <= LAST_DELIVERY_SLOT; i++) {
-            slot = new DeliverySlot(LocalDateTime
-            .from(day.atTime(i, 0).atZone(ZoneId.systemDefault())));
-            if (!dayDeliveries.contains(slot))
-                return Optional.of(slot);
-        }
-        return Optional.ofNullable(slot);
+    Optional<DeliverySlot> nextSlot(LocalDate day) {
+        long start = metrics.sample();
+        advance(calendar.today());
+        int dayIndex = store.dayIndex(day.toEpochDay());
+        int slotIndex = dayIndex < 0 ? NO_SLOT : store.freeSlot(dayIndex);
+        Optional<DeliverySlot> slot = slotIndex == NO_SLOT ? Optional.empty()
+            : Optional.of(slotView(dayIndex, slotIndex));
+        metrics.recordNextSlot(start);
+        return slot;
     }
 
+    /**
+     * Returns the days of the delivery period where the product could be
+     * delivered and a slot has a free seat, from the current availability
+     * snapshot. The days are not booked and can be taken by the time the
+     * delivery is scheduled.
+     * @param product - the product to deliver
+     * @return the available days in ascending order
+     */
+    public List<LocalDate> availableDays(Product product) {
+        AvailabilitySnapshot snapshot = availability();
+        return snapshot.days(snapshot.availableDays(product));
+    }
+
+    /**
+     * Returns the current AvailabilitySnapshot, building a new one if seats
+     * were taken or freed since it was built or if the day changed. The
+     * query only reads: it neither moves the store to a new day nor expires
+     * holds, which is left to the booking calls, so an expired hold is seen
+     * as taken until the next one. A snapshot built while seats change is
+     * tagged with the version read before reading the store, so it is
+     * replaced on the next query, and it is only installed over an older
+     * snapshot.
+     */
+    AvailabilitySnapshot availability() {
+        DeliveryCalendar.Horizon horizon = calendar.horizon();
+        LocalDate today = horizon.today();
+        long version = seatVersion.get();
+        AvailabilitySnapshot current = availability.get();
+        if (current != null && current.version() == version
+            && current.today().equals(today))
+            return current;
+        int[] freeSlots = new int[PERIOD_LENGTH];
+        int greenDays = 0;
+        for (int i = 0; i < PERIOD_LENGTH; i++) {
+            long epochDay = today.toEpochDay() + i;
+            int dayIndex = store.dayIndex(epochDay);
+            if (dayIndex >= 0)
+                freeSlots[i] = store.freeSlots(dayIndex);
+            if (isGreen(epochDay))
+                greenDays |= 1 << i;
+        }
+        AvailabilitySnapshot snapshot = new AvailabilitySnapshot(version,
+        horizon.possibleDays(), freeSlots, greenDays);
+        while (current == null || snapshot.isNewerThan(current)) {
+            if (availability.compareAndSet(current, snapshot))
+                break;
+            current = availability.get();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Creates the DeliverySlot view of a slot of the store, from the instants
+     * computed by the calendar when the day is in the delivery period
+     * @param dayIndex - the index of the day in the store
+     * @param slotIndex - the index of the slot in the day
+     * @return the DeliverySlot
+     */
+    private DeliverySlot slotView(int dayIndex, int slotIndex) {
+        long epochDay = store.epochDay(dayIndex);
+        int hour = FIRST_DELIVERY_SLOT + slotIndex;
+        DeliveryCalendar.Horizon horizon = calendar.horizon();
+        long index = epochDay - horizon.today().toEpochDay();
+        if (index < 0 || index >= PERIOD_LENGTH)
+            return new DeliverySlot(LocalDate.ofEpochDay(epochDay)
+            .atTime(hour, 0));
+        return new DeliverySlot(horizon.slotBegin((int) index, hour),
+        horizon.slotEnd((int) index, hour), isGreen(epochDay));
+    }
+
+    /**
+     * Returns the ISO-8601 representation of the beginning of a slot of the
+     * store in UTC, cached by the calendar for the days of the period
+     * @param dayIndex - the index of the day in the store
+     * @param slotIndex - the index of the slot in the day
+     * @return the delivery date of the slot
+     */
+    private String deliveryDate(int dayIndex, int slotIndex) {
+        long epochDay = store.epochDay(dayIndex);
+        int hour = FIRST_DELIVERY_SLOT + slotIndex;
+        DeliveryCalendar.Horizon horizon = calendar.horizon();
+        long index = epochDay - horizon.today().toEpochDay();
+        if (index < 0 || index >= PERIOD_LENGTH)
+            return slotView(dayIndex, slotIndex).begin
+            .atOffset(ZoneOffset.UTC).toString();
+        return horizon.deliveryDate((int) index, hour);
+    }
+
+    /**
+     * @param epochDay - the epoch day of a day
+     * @return true if the day is a green day
+     */
+    private static boolean isGreen(long epochDay) {
+        // The epoch day 0 is a THURSDAY
+        int weekday = (int) Math.floorMod(epochDay + 3, 7L);
+        return (greenMask & 1 << weekday) != 0;
+    }
+
+    public DeliveryCalendar getCalendar() {
+        return calendar;
+    }
+
+    public DeliveryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Publishes the bookings and cancellations made from now on to a feed,
+     * the bookings restored from a journal or a snapshot are not published
+     * @param feed - the BookingFeed to publish to, null to stop publishing
+     */
+    public void setBookingFeed(BookingFeed feed) {
+        this.feed = feed;
+    }
+
+    /**
+     * @return the number of deliveries of the current day and the days
+     * after it
+     */
     public int countDeliveries() {
-        return deliveries.size();
+        LocalDate today = calendar.today();
+        advance(today);
+        return store.count() + countOtherSlots(today.toEpochDay());
+    }
+
+    public int getSlotCapacity() {
+        return store.slotCapacity();
     }
 
     public int countDeliveries(LocalDate day) {
-        return deliveries.stream().collect(Collectors.filtering(d -> 
-        {
-            Instant begin = day.atStartOfDay().atZone(ZoneId.systemDefault())
-            .toInstant();
-            Instant end = day.plusDays(1).atStartOfDay().atZone(ZoneId
-            .systemDefault()).toInstant();
-            return d.overlaps(begin, end);
-        }, Collectors.toSet())).size();
+        LocalDate today = calendar.today();
+        advance(today);
+        if (day.isBefore(today))
+            return 0;
+        int dayIndex = store.dayIndex(day.toEpochDay());
+        return (dayIndex < 0 ? 0 : store.count(dayIndex))
+        + countOtherSlots(day);
+    }
+
+    /**
+     * Counts the deliveries of the current day and the days after it like
+     * countDeliveries, without moving the store to the current day nor
+     * releasing the expired holds, for the readers such as the metrics
+     * that must not change the service
+     * @return the number of deliveries of the current day and the days
+     * after it
+     */
+    int peekDeliveries() {
+        long today = calendar.today().toEpochDay();
+        return store.count(today) + countOtherSlots(today);
+    }
+
+    /**
+     * Counts the deliveries of a day like countDeliveries(LocalDate),
+     * without moving the store to the current day
+     * @param day - the day to count
+     * @return the number of deliveries of the day, 0 if it is past
+     */
+    int peekDeliveries(LocalDate day) {
+        if (day.isBefore(calendar.today()))
+            return 0;
+        int dayIndex = store.dayIndex(day.toEpochDay());
+        return (dayIndex < 0 ? 0 : store.count(dayIndex))
+        + countOtherSlots(day);
+    }
+
+    /**
+     * Writes the bookings of the service to a binary snapshot file, to be
+     * restored with fromSnapshot. Bookings made while the snapshot is written
+     * may or may not be part of it.
+     * @param path - the path of the snapshot file, replaced once the
+     * snapshot is complete
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void writeSnapshot(Path path) throws IOException {
+        advance(calendar.today());
+        ScheduleSnapshot.write(store, path);
     }
 
+    /**
+     * Receives the delivery slots of the schedule one at a time
+     */
+    @FunctionalInterface
+    public interface ScheduleVisitor {
+        /**
+         * @param deliveryDate - the ISO-8601 UTC beginning of the slot
+         * @param isGreen - true if the slot is on a green day
+         */
+        void visit(String deliveryDate, boolean isGreen) throws IOException;
+    }
+
+    /**
+     * Visits the delivery slots in the priority order of getSchedule without
+     * copying the schedule
+     * @param visitor - the ScheduleVisitor to call for each slot
+     * @throws IOException if the visitor fails
+     */
+    public void visitSchedule(ScheduleVisitor visitor) throws IOException {
+        long start = metrics.sample();
+        ScheduleView view = scheduleView();
+        metrics.recordSchedule(start);
+        for (int slot : view.slots) {
+            if (slot < 0) {
+                DeliverySlot other = view.others[-1 - slot];
+                visitor.visit(other.begin.atOffset(ZoneOffset.UTC).toString(),
+                other.isGreen);
+                continue;
+            }
+            int dayIndex = slot / MAX_DELIVERIES;
+            visitor.visit(deliveryDate(dayIndex, slot % MAX_DELIVERIES),
+            isGreen(store.epochDay(dayIndex)));
+        }
+    }
+
+    /**
+     * Returns the delivery slots in priority order: the green slots within
+     * the next 3 days first, then every other slot, both in ascending order.
+     * @return an immutable list of the beginning of each slot in UTC and
+     * whether it is on a green day
+     */
     public List<Pair<OffsetDateTime,Boolean>> getSchedule() {
-        List<Pair<OffsetDateTime,Boolean>> schedule = 
-        new ArrayList<Pair<OffsetDateTime,Boolean>>();
-        TreeSet<DeliverySlot> greenDayFirstDeliveries =
-        new TreeSet<DeliverySlot>(new Comparator<DeliverySlot>() {
-            @Override public int compare(DeliverySlot o1, DeliverySlot o2) {
-                Instant greenLimit = LocalDate.now().plusDays(3).atStartOfDay()
-                .atZone(ZoneId.systemDefault()).toInstant();
-                boolean hasPriorityO1 = o1.isGreen
-                && o1.begin.isBefore(greenLimit);
-                boolean hasPriorityO2 = o2.isGreen 
-                && o2.begin.isBefore(greenLimit);
-                if (hasPriorityO1 && hasPriorityO2) {
-                    return o1.begin.compareTo(o2.begin);
-                } else if (hasPriorityO1) {
-                    return -1;
+        long start = metrics.sample();
+        List<Pair<OffsetDateTime,Boolean>> schedule = scheduleView()
+        .schedule();
+        metrics.recordSchedule(start);
+        return schedule;
+    }
+
+    /**
+     * Returns the cached ScheduleView, building a new one if slots were
+     * added since it was built or if the green window moved
+     */
+    private ScheduleView scheduleView() {
+        LocalDate today = calendar.today();
+        advance(today);
+        ScheduleView view = this.scheduleView;
+        if (view != null && view.version == version.get()
+            && view.today.equals(today))
+            return view;
+        view = new ScheduleView(version.get(), today);
+        this.scheduleView = view;
+        return view;
+    }
+
+    /**
+     * Immutable view of the schedule in priority order for one version of
+     * the deliveries and one day. The slots of the store being in ascending
+     * order, the green slots within the next 3 days are a subsequence of
+     * their first part, so the view is built in two passes without sorting.
+     * The view holds the slot codes only, the list of getSchedule is built
+     * from them on its first call so that visitSchedule does not pay for it.
+     * The slots kept aside by addSlot, if any, are merged in and coded
+     * -1 - i for the i-th of others.
+     */
+    private final class ScheduleView {
+        private final long version;
+        private final LocalDate today;
+        private final int[] slots;
+        private final DeliverySlot[] others;
+        private volatile List<Pair<OffsetDateTime,Boolean>> schedule;
+
+        private ScheduleView(long version, LocalDate today) {
+            this.version = version;
+            this.today = today;
+            long greenLimit = today.plusDays(3).toEpochDay();
+            long firstDay = store.firstDay();
+            int days = (int) Math.max(0L, store.lastDay() - firstDay + 1);
+            // The deliveries of each slot of the days from firstDay
+            int[] taken = new int[SlotStore.slot(days, 0)];
+            int[] dayIndexes = new int[days];
+            int count = 0;
+            for (int d = 0; d < days; d++) {
+                dayIndexes[d] = store.dayIndex(firstDay + d);
+                if (dayIndexes[d] < 0)
+                    continue;
+                for (int i = 0; i < MAX_DELIVERIES; i++) {
+                    taken[SlotStore.slot(d, i)] = Long.bitCount(
+                        store.seats(SlotStore.slot(dayIndexes[d], i)));
+                    count += taken[SlotStore.slot(d, i)];
+                }
+            }
+            int[] slots = new int[count];
+            int n = 0;
+            for (int d = 0; d < days; d++) {
+                long epochDay = firstDay + d;
+                if (epochDay < greenLimit && isGreen(epochDay))
+                    n = addSlots(slots, n, d, dayIndexes[d], taken);
+            }
+            int green = n;
+            for (int d = 0; d < days; d++) {
+                long epochDay = firstDay + d;
+                if (epochDay >= greenLimit || !isGreen(epochDay))
+                    n = addSlots(slots, n, d, dayIndexes[d], taken);
+            }
+            List<DeliverySlot> aside = otherSlots.isEmpty()
+                ? Collections.<DeliverySlot>emptyList()
+                : new ArrayList<DeliverySlot>(otherSlots.tailMap(startOfDay(
+                    today.toEpochDay())).values());
+            if (aside.isEmpty()) {
+                this.slots = slots;
+                this.others = null;
+                return;
+            }
+            // The green slots within the next 3 days first, both parts in
+            // ascending order like the slots of the store
+            Instant greenBegin = startOfDay(greenLimit);
+            List<DeliverySlot> ordered = new ArrayList<DeliverySlot>();
+            for (DeliverySlot other : aside) {
+                if (other.isGreen && other.begin.isBefore(greenBegin))
+                    ordered.add(other);
+            }
+            int greenOthers = ordered.size();
+            for (DeliverySlot other : aside) {
+                if (!other.isGreen || !other.begin.isBefore(greenBegin))
+                    ordered.add(other);
+            }
+            this.others = ordered.toArray(new DeliverySlot[0]);
+            this.slots = new int[slots.length + this.others.length];
+            int m = merge(slots, 0, green, 0, greenOthers, 0);
+            merge(slots, green, slots.length, greenOthers,
+            this.others.length, m);
+        }
+
+        /**
+         * Merges the slot codes from i to iEnd with the others from j to
+         * jEnd into slots from n, by beginning
+         * @return the index of slots after the last one merged
+         */
+        private int merge(int[] codes, int i, int iEnd, int j, int jEnd,
+                          int n) {
+            while (i < iEnd || j < jEnd) {
+                if (j == jEnd || i < iEnd && !others[j].begin.isBefore(
+                    slotView(codes[i] / MAX_DELIVERIES,
+                    codes[i] % MAX_DELIVERIES).begin)) {
+                    slots[n++] = codes[i++];
                 } else {
-                    return 1;
+                    slots[n++] = -1 - j++;
                 }
             }
-        });
-        greenDayFirstDeliveries.addAll(deliveries);
-        for (DeliverySlot deliverySlot : greenDayFirstDeliveries) {
-            schedule.add(new Pair<OffsetDateTime,Boolean>(
-                deliverySlot.begin.atOffset(ZoneOffset.UTC),
-                deliverySlot.isGreen)
-            );
+            return n;
+        }
+
+        /**
+         * Returns the schedule of the view, built once. Threads racing on
+         * the first call build equal lists and keep the last one.
+         */
+        private List<Pair<OffsetDateTime,Boolean>> schedule() {
+            List<Pair<OffsetDateTime,Boolean>> schedule = this.schedule;
+            if (schedule != null)
+                return schedule;
+            schedule = new ArrayList<Pair<OffsetDateTime,Boolean>>(
+                slots.length);
+            for (int slot : slots) {
+                DeliverySlot deliverySlot = slot < 0 ? others[-1 - slot]
+                    : slotView(slot / MAX_DELIVERIES, slot % MAX_DELIVERIES);
+                schedule.add(new Pair<OffsetDateTime,Boolean>(
+                    deliverySlot.begin.atOffset(ZoneOffset.UTC),
+                    deliverySlot.isGreen)
+                );
+            }
+            schedule = Collections.unmodifiableList(schedule);
+            this.schedule = schedule;
+            return schedule;
+        }
+
+        /**
+         * Adds the slots of the day d days after the first day, once per
+         * delivery of the slot
+         */
+        private int addSlots(int[] slots, int n, int d, int dayIndex,
+                             int[] taken) {
+            for (int i = 0; i < MAX_DELIVERIES; i++) {
+                for (int j = 0; j < taken[SlotStore.slot(d, i)]; j++) {
+                    slots[n++] = SlotStore.slot(dayIndex, i);
+                }
+            }
+            return n;
         }
-        return schedule;
     }
-}
\ No newline at end of file
+}
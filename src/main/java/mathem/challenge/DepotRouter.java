@@ -0,0 +1,134 @@
+package mathem.challenge;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Routes postcodes to the depot delivering them, each depot scheduling its
+ * deliveries on its own DeliveryService shard. Routes are postcode prefixes
+ * kept in a trie over the postcode digits, the longest matching prefix
+ * deciding the depot, and postcodes matching no prefix are delivered by the
+ * DEFAULT_DEPOT.
+ *
+ * Routes are added while setting up the router, before it is shared with the
+ * threads serving requests. The shards have no state in common, so requests
+ * for different depots are scheduled in parallel.
+ */
+public class DepotRouter {
+    public static final String DEFAULT_DEPOT = "default";
+
+    private final DeliveryCalendar calendar;
+    private final int slotCapacity;
+    private final Node root = new Node();
+    private final ConcurrentMap<String, DeliveryService> shards =
+    new ConcurrentHashMap<String, DeliveryService>();
+
+    private static class Node {
+        private final Node[] children = new Node[10];
+        private String depot;
+    }
+
+    /**
+     * Creates a router delivering every postcode from the DEFAULT_DEPOT
+     * until routes are added
+     */
+    public DepotRouter() {
+        this(DeliveryCalendar.systemDefault());
+    }
+
+    /**
+     * Creates a router delivering every postcode from the DEFAULT_DEPOT
+     * until routes are added, the shards of the depots following the given
+     * calendar
+     * @param calendar - the DeliveryCalendar of the DeliveryService shards
+     */
+    public DepotRouter(DeliveryCalendar calendar) {
+        this(calendar, 1);
+    }
+
+    /**
+     * Creates a router delivering every postcode from the DEFAULT_DEPOT
+     * until routes are added, the shards of the depots following the given
+     * calendar with the given capacity of a slot
+     * @param calendar - the DeliveryCalendar of the DeliveryService shards
+     * @param slotCapacity - the number of deliveries of a slot of the
+     * shards, up to 64
+     */
+    public DepotRouter(DeliveryCalendar calendar, int slotCapacity) {
+        this.calendar = calendar;
+        this.slotCapacity = slotCapacity;
+    }
+
+    /**
+     * Creates a router delivering every postcode from the DEFAULT_DEPOT
+     * until routes are added, the default depot scheduling its deliveries on
+     * the given DeliveryService
+     * @param deliveryService - the DeliveryService of the DEFAULT_DEPOT
+     */
+    public DepotRouter(DeliveryService deliveryService) {
+        this(deliveryService.getCalendar(),
+        deliveryService.getSlotCapacity());
+        shards.put(DEFAULT_DEPOT, deliveryService);
+    }
+
+    /**
+     * Routes the postcodes starting with the prefix to the depot
+     * @param prefix - the leading digits of the postcodes to route
+     * @param depot - the name of the depot delivering these postcodes
+     */
+    public void addRoute(String prefix, String depot) {
+        Node node = root;
+        for (int i = 0; i < prefix.length(); i++) {
+            int digit = Character.digit(prefix.charAt(i), 10);
+            if (digit < 0)
+                continue;
+            if (node.children[digit] == null)
+                node.children[digit] = new Node();
+            node = node.children[digit];
+        }
+        node.depot = depot;
+    }
+
+    /**
+     * Returns the depot of the longest route matching the postcode, the
+     * characters other than digits being ignored
+     * @param postcode - the postcode to route
+     * @return the name of the depot delivering the postcode
+     */
+    public String depot(String postcode) {
+        String depot = root.depot == null ? DEFAULT_DEPOT : root.depot;
+        Node node = root;
+        for (int i = 0; i < postcode.length() && node != null; i++) {
+            int digit = Character.digit(postcode.charAt(i), 10);
+            if (digit < 0)
+                continue;
+            node = node.children[digit];
+            if (node != null && node.depot != null)
+                depot = node.depot;
+        }
+        return depot;
+    }
+
+    /**
+     * Returns the DeliveryService shard of the depot delivering the postcode
+     * @param postcode - the postcode to deliver
+     * @return the DeliveryService of the depot, created on first use
+     */
+    public DeliveryService deliveryService(String postcode) {
+        return shard(depot(postcode));
+    }
+
+    /**
+     * Returns the DeliveryService shard of a depot
+     * @param depot - the name of the depot
+     * @return the DeliveryService of the depot, created on first use
+     */
+    public DeliveryService shard(String depot) {
+        return shards.computeIfAbsent(depot,
+            d -> new DeliveryService(calendar, slotCapacity));
+    }
+
+    public int countShards() {
+        return shards.size();
+    }
+}
@@ -0,0 +1,133 @@
+package mathem.challenge;
+
+import java.util.Arrays;
+
+/**
+ * Flow network with integer capacities, computing a maximum flow with
+ * Dinic's algorithm: breadth-first levels from the source, then blocking
+ * flows along the levels until the sink cannot be reached anymore.
+ *
+ * Edges are stored in parallel arrays, each edge followed by its reverse
+ * edge, so that the edge of id e has its reverse at e ^ 1. An initial flow
+ * can be pushed along edges before computing the maximum flow, which then
+ * only adds augmenting paths to it.
+ */
+final class FlowNetwork {
+    private final int nodes;
+    private final int[] head;
+    private int[] next;
+    private int[] to;
+    private int[] capacity;
+    private int edges;
+    private final int[] level;
+    private final int[] cursor;
+    private final int[] queue;
+
+    /**
+     * @param nodes - the number of nodes of the network
+     * @param expectedEdges - the number of edges to allocate for
+     */
+    FlowNetwork(int nodes, int expectedEdges) {
+        this.nodes = nodes;
+        this.head = new int[nodes];
+        Arrays.fill(head, -1);
+        this.next = new int[2 * expectedEdges];
+        this.to = new int[2 * expectedEdges];
+        this.capacity = new int[2 * expectedEdges];
+        this.level = new int[nodes];
+        this.cursor = new int[nodes];
+        this.queue = new int[nodes];
+    }
+
+    /**
+     * Adds an edge and its reverse edge of no capacity
+     * @return the id of the edge
+     */
+    int addEdge(int from, int to, int capacity) {
+        if (edges + 2 > this.to.length) {
+            int length = Math.max(4, 2 * this.to.length);
+            this.next = Arrays.copyOf(this.next, length);
+            this.to = Arrays.copyOf(this.to, length);
+            this.capacity = Arrays.copyOf(this.capacity, length);
+        }
+        int edge = edges;
+        link(edge, from, to, capacity);
+        link(edge + 1, to, from, 0);
+        edges += 2;
+        return edge;
+    }
+
+    private void link(int edge, int from, int to, int capacity) {
+        this.to[edge] = to;
+        this.capacity[edge] = capacity;
+        this.next[edge] = head[from];
+        head[from] = edge;
+    }
+
+    /**
+     * Pushes flow along an edge, within its remaining capacity
+     */
+    void push(int edge, int flow) {
+        capacity[edge] -= flow;
+        capacity[edge ^ 1] += flow;
+    }
+
+    /**
+     * @return the flow along the edge, the capacity of its reverse edge
+     */
+    int flow(int edge) {
+        return capacity[edge ^ 1];
+    }
+
+    /**
+     * Adds augmenting paths from the source to the sink until the flow is
+     * maximum
+     * @return the flow added
+     */
+    long maxFlow(int source, int sink) {
+        long added = 0;
+        while (levels(source, sink)) {
+            System.arraycopy(head, 0, cursor, 0, nodes);
+            int flow;
+            while ((flow = augment(source, sink, Integer.MAX_VALUE)) > 0) {
+                added += flow;
+            }
+        }
+        return added;
+    }
+
+    private boolean levels(int source, int sink) {
+        Arrays.fill(level, -1);
+        level[source] = 0;
+        int first = 0;
+        int last = 0;
+        queue[last++] = source;
+        while (first < last) {
+            int node = queue[first++];
+            for (int edge = head[node]; edge >= 0; edge = next[edge]) {
+                if (capacity[edge] > 0 && level[to[edge]] < 0) {
+                    level[to[edge]] = level[node] + 1;
+                    queue[last++] = to[edge];
+                }
+            }
+        }
+        return level[sink] >= 0;
+    }
+
+    private int augment(int node, int sink, int limit) {
+        if (node == sink)
+            return limit;
+        for (; cursor[node] >= 0; cursor[node] = next[cursor[node]]) {
+            int edge = cursor[node];
+            if (capacity[edge] > 0 && level[to[edge]] == level[node] + 1) {
+                int flow = augment(to[edge], sink,
+                Math.min(limit, capacity[edge]));
+                if (flow > 0) {
+                    push(edge, flow);
+                    return flow;
+                }
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,83 @@
+package mathem.challenge;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent histogram of latencies in nanoseconds with logarithmic buckets,
+ * in the manner of an HDR histogram: each power of two is split into
+ * SUB_BUCKETS linear buckets, so a recorded value is known to within 1/16th
+ * of itself whatever its magnitude. Recording is one increment of an atomic
+ * array, without allocation or locking, though the threads recording
+ * latencies of the same bucket at once contend on its counter.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Values above 2^40 ns, about 18 minutes, are counted as 2^40 ns
+    private static final int MAX_MAGNITUDE = 40;
+    private static final long MAX_VALUE = (1L << MAX_MAGNITUDE) - 1;
+    private static final int BUCKETS = SUB_BUCKETS
+    + (MAX_MAGNITUDE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) Math.max(0, value);
+        value = Math.min(value, MAX_VALUE);
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS
+        + (int) (value >>> shift & SUB_BUCKETS - 1);
+    }
+
+    /**
+     * @return the highest value counted in the bucket
+     */
+    static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        long subBucket = SUB_BUCKETS + (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    void record(long nanos) {
+        counts.getAndIncrement(bucket(nanos));
+    }
+
+    long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile - the percentile between 0 and 100
+     * @return the latency in nanoseconds below which the given percentage of
+     * the recorded latencies fall, or 0 if none was recorded
+     */
+    long percentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return highestValue(i);
+        }
+        return 0;
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+    }
+}
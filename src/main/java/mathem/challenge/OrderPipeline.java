@@ -0,0 +1,261 @@
+package mathem.challenge;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import mathem.challenge.Product.ProductType;
+
+/**
+ * Bulk scheduling of a stream of orders, read and written as JSON Lines.
+ *
+ * Each input line is an order such as
+ * {"postalCode":"12345","products":[{"productName":"P1",
+ * "productType":"EXTERNAL","deliveryDays":["MONDAY"],"daysInAdvance":5}]}
+ * where only the product names are required, and each output line tells
+ * which products of the order of the same line were scheduled:
+ * {"postalCode":"12345","deliveries":[{"productName":"P1",
+ * "scheduled":true}]}
+ *
+ * The orders go through a pipeline of stages running on their own threads:
+ * parsing, validation of the products and lookup of their possible days,
+ * scheduling and serialization. The stages are connected by bounded queues,
+ * so a slow stage blocks the ones before it and the pipeline holds at most a
+ * few queues of orders whatever the size of the input. Scheduling runs on a
+ * single stage so that the orders are scheduled in input order.
+ */
+public class OrderPipeline {
+    static final int QUEUE_CAPACITY = 256;
+
+    private final DepotRouter depotRouter;
+    private final ProductCatalog catalog;
+
+    /**
+     * An order moving through the stages, each stage filling its part
+     */
+    private static final class Order {
+        private String postcode;
+        private final List<Product> products = new ArrayList<Product>();
+        private DeliveryService deliveryService;
+        private List<List<LocalDate>> possibleDays;
+        private boolean[] scheduled;
+    }
+
+    // Sent by each stage to the next one after its last order
+    private static final Order END = new Order();
+
+    /**
+     * @param depotRouter - the router of the postcodes to the depots
+     * scheduling the orders
+     * @param catalog - the ProductCatalog to register the products of the
+     * orders in
+     */
+    public OrderPipeline(DepotRouter depotRouter, ProductCatalog catalog) {
+        this.depotRouter = depotRouter;
+        this.catalog = catalog;
+    }
+
+    /**
+     * Schedules the orders read from the input and writes the result of
+     * each order to the output
+     * @param in - the Reader of the orders, one JSON object per line
+     * @param out - the Writer of the results, one JSON object per line
+     * @return the number of orders processed
+     * @throws IOException if reading the orders or writing the results
+     * fails, or an order is not valid JSON
+     */
+    public long run(Reader in, Writer out) throws IOException {
+        BlockingQueue<Order> parsed =
+        new ArrayBlockingQueue<Order>(QUEUE_CAPACITY);
+        BlockingQueue<Order> validated =
+        new ArrayBlockingQueue<Order>(QUEUE_CAPACITY);
+        BlockingQueue<Order> scheduled =
+        new ArrayBlockingQueue<Order>(QUEUE_CAPACITY);
+        ExecutorService stages = Executors.newFixedThreadPool(3);
+        try {
+            CompletionService<Void> futures =
+            new ExecutorCompletionService<Void>(stages);
+            futures.submit(() -> parse(in, parsed));
+            futures.submit(() -> stage(parsed, validated, this::validate));
+            futures.submit(() -> stage(validated, scheduled, this::schedule));
+            long count = serialize(scheduled, out);
+            // Waited for in completion order, since the stages before a
+            // failed one block on their full queue until they are
+            // interrupted by the shutdown
+            for (int i = 0; i < 3; i++) {
+                futures.take().get();
+            }
+            return count;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            // Unblocks the stages still waiting on a queue after a failure
+            stages.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs a stage, passing END downstream even when it fails so that the
+     * following stages complete. The stages before it are left blocked on
+     * their queue until run shuts them down.
+     */
+    private static Void stage(BlockingQueue<Order> in,
+                              BlockingQueue<Order> out, Consumer<Order> step)
+    throws InterruptedException {
+        try {
+            for (Order order = in.take(); order != END; order = in.take()) {
+                step.accept(order);
+                out.put(order);
+            }
+        } finally {
+            out.put(END);
+        }
+        return null;
+    }
+
+    private Void parse(Reader in, BlockingQueue<Order> out)
+    throws IOException, InterruptedException {
+        try {
+            JsonReader reader = new JsonReader(in);
+            // Lenient to read the top-level objects of consecutive lines
+            reader.setLenient(true);
+            while (reader.peek() != JsonToken.END_DOCUMENT) {
+                out.put(readOrder(reader));
+            }
+        } finally {
+            out.put(END);
+        }
+        return null;
+    }
+
+    private Order readOrder(JsonReader reader) throws IOException {
+        Order order = new Order();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+            case "postalCode":
+                order.postcode = reader.nextString();
+                break;
+            case "products":
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    order.products.add(readProduct(reader));
+                }
+                reader.endArray();
+                break;
+            default:
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (order.postcode == null)
+            throw new IOException("Missing postalCode at " + reader);
+        return order;
+    }
+
+    private Product readProduct(JsonReader reader) throws IOException {
+        String name = null;
+        ProductType productType = ProductType.NORMAL;
+        EnumSet<DayOfWeek> deliveryDays = EnumSet.allOf(DayOfWeek.class);
+        int daysInAdvance = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+            case "productName":
+                name = reader.nextString();
+                break;
+            case "productType":
+                productType = ProductType.valueOf(reader.nextString());
+                break;
+            case "deliveryDays":
+                deliveryDays = EnumSet.noneOf(DayOfWeek.class);
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    deliveryDays.add(DayOfWeek.valueOf(reader.nextString()));
+                }
+                reader.endArray();
+                break;
+            case "daysInAdvance":
+                daysInAdvance = reader.nextInt();
+                break;
+            default:
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (name == null)
+            throw new IOException("Missing productName at " + reader);
+        return catalog.register(name, productType, deliveryDays,
+        daysInAdvance);
+    }
+
+    private void validate(Order order) {
+        order.deliveryService = depotRouter.deliveryService(order.postcode);
+        DeliveryCalendar calendar = order.deliveryService.getCalendar();
+        ProductBatch batch = new ProductBatch(order.products);
+        order.possibleDays = new ArrayList<List<LocalDate>>(
+            Collections.nCopies(batch.size(), (List<LocalDate>) null));
+        for (int i = 0; i < batch.selected(); i++) {
+            int index = batch.selection(i);
+            order.possibleDays.set(index, App.possibleDays(
+                batch.product(index), calendar));
+        }
+    }
+
+    private void schedule(Order order) {
+        order.scheduled = new boolean[order.products.size()];
+        for (int i = 0; i < order.products.size(); i++) {
+            List<LocalDate> possibleDays = order.possibleDays.get(i);
+            order.scheduled[i] = possibleDays != null && order.deliveryService
+            .scheduleDelivery(possibleDays, order.products.get(i));
+        }
+    }
+
+    private static long serialize(BlockingQueue<Order> in, Writer out)
+    throws IOException, InterruptedException {
+        long count = 0;
+        for (Order order = in.take(); order != END; order = in.take()) {
+            JsonWriter writer = new JsonWriter(out);
+            writer.setHtmlSafe(true);
+            writer.beginObject();
+            writer.name("postalCode").value(order.postcode);
+            writer.name("deliveries").beginArray();
+            for (int i = 0; i < order.products.size(); i++) {
+                writer.beginObject();
+                writer.name("productName")
+                .value(order.products.get(i).getProductName());
+                writer.name("scheduled").value(order.scheduled[i]);
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.endObject();
+            out.write('\n');
+            count++;
+        }
+        out.flush();
+        return count;
+    }
+}
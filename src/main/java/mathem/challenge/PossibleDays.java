@@ -0,0 +1,86 @@
+package mathem.challenge;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+
+/**
+ * Lookup table of the days of the delivery period where a product could be
+ * delivered. A product only matters through its delivery days, one of 128
+ * weekday masks, and its days in advance, which only matter from 0 to the
+ * length of the period, so every answer for the current day is computed
+ * once as a bitmask over the period (bit 0 being the current day).
+ * The table of the current day is held by the DeliveryCalendar, which
+ * rebuilds it lazily when the date changes.
+ */
+final class PossibleDays {
+    static final int PERIOD_LENGTH = DeliveryService.PERIOD_LENGTH;
+    private static final DayOfWeek[] WEEKDAYS = DayOfWeek.values();
+    private static final int WEEKDAY_MASKS = 1 << WEEKDAYS.length;
+
+    private final LocalDate today;
+    private final LocalDate[] period;
+    private final int[] candidates;
+
+    /**
+     * Computes the candidate days of every weekday mask and lead time
+     * @param today - the first day of the delivery period
+     */
+    PossibleDays(LocalDate today) {
+        this.today = today;
+        this.period = new LocalDate[PERIOD_LENGTH];
+        int[] weekdayDays = new int[WEEKDAYS.length];
+        for (int i = 0; i < PERIOD_LENGTH; i++) {
+            period[i] = today.plusDays(i);
+            weekdayDays[period[i].getDayOfWeek().ordinal()] |= 1 << i;
+        }
+        this.candidates = new int[WEEKDAY_MASKS * (PERIOD_LENGTH + 1)];
+        for (int mask = 0; mask < WEEKDAY_MASKS; mask++) {
+            int days = 0;
+            for (int w = 0; w < WEEKDAYS.length; w++) {
+                if ((mask & 1 << w) != 0)
+                    days |= weekdayDays[w];
+            }
+            // Skip the current day as DeliveryService does not account
+            // for time of current day
+            for (int lead = 0; lead < PERIOD_LENGTH; lead++) {
+                candidates[mask * (PERIOD_LENGTH + 1) + lead] =
+                days & -(1 << Math.max(1, lead));
+            }
+        }
+    }
+
+    /**
+     * Returns the days of the period where the product could be delivered
+     * @param product - the product to find the delivery days of
+     * @return the bitmask of the candidate days over the period
+     */
+    int candidateDays(Product product) {
+        return candidateDays(product.getWeekdayMask(),
+        product.getDaysInAdvance());
+    }
+
+    /**
+     * Returns the days of the period where a product with the given
+     * constraints could be delivered
+     * @param weekdayMask - the delivery days of the product as a bitmask
+     * indexed by DayOfWeek ordinal
+     * @param daysInAdvance - the days in advance constraint of the product
+     * @return the bitmask of the candidate days over the period
+     */
+    int candidateDays(int weekdayMask, int daysInAdvance) {
+        int lead = Math.min(Math.max(0, daysInAdvance), PERIOD_LENGTH);
+        return candidates[weekdayMask * (PERIOD_LENGTH + 1) + lead];
+    }
+
+    /**
+     * @param index - the index of the day within the period
+     * @return the day of the period at the given index
+     */
+    LocalDate day(int index) {
+        return period[index];
+    }
+
+    LocalDate today() {
+        return today;
+    }
+}
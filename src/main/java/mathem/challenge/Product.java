@@ -1,8 +1,7 @@
 package mathem.challenge;
 
-import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.time.DayOfWeek;
-import java.util.Collections;
 import java.util.EnumSet;
 import java.util.UUID;
 
@@ -17,13 +16,59 @@ import java.util.UUID;
 public class Product {
     private final UUID productId;
     private final String productName;
-    private final ProductType productType;
-    private EnumSet<DayOfWeek> deliveryDays;
-    private int daysInAdvance;
+    private final Profile profile;
 
     public static final String MATHEM_NAMESPACE = "mathem.se";
     public static enum ProductType { NORMAL, EXTERNAL, TEMPORARY };
 
+    private static final DayOfWeek[] WEEKDAYS = DayOfWeek.values();
+    private static final Profile DEFAULT_PROFILE = new Profile(
+        ProductType.NORMAL, EnumSet.allOf(DayOfWeek.class), 0);
+
+    /**
+     * The delivery constraints of a product. Profiles are immutable so that
+     * the products with identical constraints can share one, and the
+     * validity of the constraints is computed once per profile.
+     */
+    static final class Profile {
+        private final ProductType productType;
+        private final EnumSet<DayOfWeek> deliveryDays;
+        private final int daysInAdvance;
+        private final int weekdayMask;
+        private final boolean valid;
+
+        Profile(ProductType productType, EnumSet<DayOfWeek> deliveryDays,
+                int daysInAdvance) {
+            this.productType = productType;
+            this.deliveryDays = EnumSet.copyOf(deliveryDays);
+            this.daysInAdvance = daysInAdvance;
+            this.weekdayMask = weekdayMask(deliveryDays);
+            this.valid = ValidationRules.isValid(productType.ordinal(),
+                weekdayMask, daysInAdvance);
+        }
+
+        /**
+         * Returns a key identifying the profile constraints
+         * @return the product type, weekday mask and days in advance packed
+         * in a long
+         */
+        static long key(ProductType productType,
+                        EnumSet<DayOfWeek> deliveryDays, int daysInAdvance) {
+            return (long) productType.ordinal() << 40
+                | (long) weekdayMask(deliveryDays) << 32
+                | daysInAdvance & 0xffffffffL;
+        }
+
+        private static int weekdayMask(EnumSet<DayOfWeek> deliveryDays) {
+            int mask = 0;
+            for (DayOfWeek weekday : WEEKDAYS) {
+                if (deliveryDays.contains(weekday))
+                    mask |= 1 << weekday.ordinal();
+            }
+            return mask;
+        }
+    }
+
     /**
      * Constructor for Product object with all deliveryDays and default
      * days in advance constraint.
@@ -31,11 +76,7 @@ public class Product {
      * @param productName - the name of the product
      */
     private Product(UUID productId, String productName) {
-        this.productId = productId;
-        this.productName = productName;
-        this.productType = ProductType.NORMAL;
-        this.deliveryDays = EnumSet.allOf(DayOfWeek.class);
-        this.daysInAdvance = 0;
+        this(productId, productName, DEFAULT_PROFILE);
     };
 
     /**
@@ -50,12 +91,33 @@ public class Product {
     private Product(UUID productId, String productName,
                     ProductType productType, EnumSet<DayOfWeek> deliveryDays,
                     int daysInAdvance) {
+        this(productId, productName,
+        new Profile(productType, deliveryDays, daysInAdvance));
+    };
+
+    /**
+     * Constructor for Product object sharing the constraints of a profile
+     * @param productId - the UUID (type 3) of the product
+     * @param productName - the name of the product
+     * @param profile - the constraints of the product
+     */
+    Product(UUID productId, String productName, Profile profile) {
         this.productId = productId;
         this.productName = productName;
-        this.productType = productType;
-        this.deliveryDays = deliveryDays;
-        this.daysInAdvance = daysInAdvance;
-    };
+        this.profile = profile;
+    }
+
+    /**
+     * Returns the UUID (type 3) of the product of the given name in the
+     * MATHEM_NAMESPACE
+     * @param name - the name of the product
+     * @return the UUID of the product
+     */
+    static UUID nameUUID(String name) {
+        byte[] bytes = (MATHEM_NAMESPACE + name)
+        .getBytes(StandardCharsets.UTF_8);
+        return UUID.nameUUIDFromBytes(bytes);
+    }
 
     /**
      * Static factory method for products with default constraints
@@ -64,14 +126,7 @@ public class Product {
      * Product objects with all deliveryDays and default
      */
     public static Product create(String name) {
-        try {
-            byte[] bytes = (MATHEM_NAMESPACE + name).getBytes("UTF-8");
-            UUID uuid = UUID.nameUUIDFromBytes(bytes);
-            return new Product(uuid, name);
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
-            return null;
-        }
+        return new Product(nameUUID(name), name);
     }
 
     /**
@@ -86,14 +141,8 @@ public class Product {
     public static Product create(String name, ProductType productType,
                                  EnumSet<DayOfWeek> deliveryDays,
                                  int daysInAdvance) {
-        try {
-            byte[] bytes = (MATHEM_NAMESPACE + name).getBytes("UTF-8");
-            UUID uuid = UUID.nameUUIDFromBytes(bytes);
-            return new Product(uuid, name, productType, deliveryDays, daysInAdvance);
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
-            return null;
-        }
+        return new Product(nameUUID(name), name, productType, deliveryDays,
+        daysInAdvance);
     }
 
     /**
@@ -102,13 +151,7 @@ public class Product {
      * constraints
      */
     public boolean isValid() {
-        return (productType.equals(ProductType.NORMAL)
-            || (productType.equals(ProductType.EXTERNAL)
-                && daysInAdvance >= 5)
-            || (productType.equals(ProductType.TEMPORARY)
-                && Collections.disjoint(deliveryDays,
-                   EnumSet.range(DayOfWeek.SATURDAY, DayOfWeek.SUNDAY))))
-            && !deliveryDays.isEmpty();
+        return profile.valid;
     }
 
     public UUID getProductId() {
@@ -120,14 +163,29 @@ public class Product {
     }
 
     public ProductType getProductType() {
-        return this.productType;
+        return profile.productType;
     }
 
+    /**
+     * Returns a copy of the delivery days of the product, as the constraints
+     * may be shared with other products
+     */
     public EnumSet<DayOfWeek> getDeliveryDays() {
-        return this.deliveryDays;
+        return EnumSet.copyOf(profile.deliveryDays);
     }
 
     public int getDaysInAdvance() {
-        return this.daysInAdvance;
+        return profile.daysInAdvance;
+    }
+
+    /**
+     * Returns the delivery days as a bitmask indexed by DayOfWeek ordinal
+     */
+    int getWeekdayMask() {
+        return profile.weekdayMask;
+    }
+
+    Profile getProfile() {
+        return profile;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,87 @@
+package mathem.challenge;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The products of a cart or an order held in columns for validation: the
+ * ordinal of the product type, the weekday mask and the days in advance of
+ * each product, one byte each. The valid products are selected by
+ * ValidationRules in one pass over the columns into a selection vector of
+ * their indexes, exposed as a list view instead of a filtered copy.
+ */
+final class ProductBatch {
+    private final Product[] products;
+    private final byte[] types;
+    private final byte[] weekdayMasks;
+    private final byte[] daysInAdvance;
+    private final int[] selection;
+    private final int selected;
+
+    /**
+     * @param products - the products of the batch
+     */
+    ProductBatch(Collection<Product> products) {
+        int length = products.size();
+        this.products = products.toArray(new Product[length]);
+        this.types = new byte[length];
+        this.weekdayMasks = new byte[length];
+        this.daysInAdvance = new byte[length];
+        for (int i = 0; i < length; i++) {
+            Product product = this.products[i];
+            types[i] = (byte) product.getProductType().ordinal();
+            weekdayMasks[i] = (byte) product.getWeekdayMask();
+            daysInAdvance[i] = ValidationRules.saturate(
+                product.getDaysInAdvance());
+        }
+        this.selection = new int[length];
+        this.selected = ValidationRules.select(types, weekdayMasks,
+        daysInAdvance, length, selection);
+    }
+
+    int size() {
+        return products.length;
+    }
+
+    Product product(int index) {
+        return products[index];
+    }
+
+    /**
+     * @return the number of valid products
+     */
+    int selected() {
+        return selected;
+    }
+
+    /**
+     * @param i - the rank of a valid product, below selected()
+     * @return the index in the batch of the valid product
+     */
+    int selection(int i) {
+        return selection[i];
+    }
+
+    /**
+     * @return a view of the valid products in batch order
+     */
+    List<Product> validProducts() {
+        return new ValidProducts();
+    }
+
+    private final class ValidProducts extends AbstractList<Product>
+    implements RandomAccess {
+        @Override public Product get(int i) {
+            if (i < 0 || i >= selected)
+                throw new IndexOutOfBoundsException("Index " + i
+                + " out of bounds for length " + selected);
+            return products[selection[i]];
+        }
+
+        @Override public int size() {
+            return selected;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package mathem.challenge;
+
+import java.time.DayOfWeek;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import mathem.challenge.Product.Profile;
+import mathem.challenge.Product.ProductType;
+
+/**
+ * Registry of the products of the catalog, safe for concurrent use.
+ * The UUID of a product is derived once per name and the products with
+ * identical constraints share one interned Profile, whose validity is only
+ * computed once.
+ */
+public class ProductCatalog {
+    private final ConcurrentMap<String, Product> products =
+    new ConcurrentHashMap<String, Product>();
+    private final ConcurrentMap<Long, Profile> profiles =
+    new ConcurrentHashMap<Long, Profile>();
+
+    /**
+     * An entry of a catalog to load in bulk
+     */
+    public static final class Entry {
+        private final String name;
+        private final ProductType productType;
+        private final EnumSet<DayOfWeek> deliveryDays;
+        private final int daysInAdvance;
+
+        /**
+         * @param name - the name of the product
+         * @param productType - the type of the product
+         * @param deliveryDays - the delivery days constraints of the product
+         * @param daysInAdvance - the days in advance constraints of the
+         * product
+         */
+        public Entry(String name, ProductType productType,
+                     EnumSet<DayOfWeek> deliveryDays, int daysInAdvance) {
+            this.name = name;
+            this.productType = productType;
+            this.deliveryDays = deliveryDays;
+            this.daysInAdvance = daysInAdvance;
+        }
+    }
+
+    /**
+     * Registers a product with default constraints
+     * @param name - the name of the product
+     * @return the registered Product
+     */
+    public Product register(String name) {
+        return register(name, ProductType.NORMAL,
+        EnumSet.allOf(DayOfWeek.class), 0);
+    }
+
+    /**
+     * Registers a product, replacing the constraints of the product of the
+     * same name if there is one
+     * @param name - the name of the product
+     * @param productType - the type of the product
+     * @param deliveryDays - the delivery days constraints of the product
+     * @param daysInAdvance - the days in advance constraints of the product
+     * @return the registered Product
+     */
+    public Product register(String name, ProductType productType,
+                            EnumSet<DayOfWeek> deliveryDays,
+                            int daysInAdvance) {
+        Profile profile = profiles.computeIfAbsent(
+            Profile.key(productType, deliveryDays, daysInAdvance),
+            key -> new Profile(productType, deliveryDays, daysInAdvance));
+        return products.compute(name, (n, product) -> {
+            if (product != null && product.getProfile() == profile)
+                return product;
+            UUID productId = product == null ? Product.nameUUID(n)
+                : product.getProductId();
+            return new Product(productId, n, profile);
+        });
+    }
+
+    /**
+     * Registers the entries of a catalog in bulk, using a parallel stream
+     * @param entries - the entries to register
+     */
+    public void registerAll(Collection<Entry> entries) {
+        entries.parallelStream().forEach(entry -> register(entry.name,
+            entry.productType, entry.deliveryDays, entry.daysInAdvance));
+    }
+
+    /**
+     * @param name - the name of the product
+     * @return the registered Product of the given name or null if there is
+     * none
+     */
+    public Product get(String name) {
+        return products.get(name);
+    }
+
+    public int countProducts() {
+        return products.size();
+    }
+
+    public int countProfiles() {
+        return profiles.size();
+    }
+}
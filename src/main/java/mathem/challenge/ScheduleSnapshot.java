@@ -0,0 +1,168 @@
+package mathem.challenge;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of the bookings of a SlotStore, written and read through a
+ * memory-mapped file so that restoring a schedule costs a scan of the file
+ * instead of scheduling every past order again.
+ *
+ * The file starts with a header holding the format version, the number of
+ * slots per day, the number of days, the epoch day of the first day, the
+ * CRC32 of the body and the capacity of a slot. The body holds the bitmask
+ * of the taken seats of each slot of each day, followed by the two longs of
+ * the product UUID of every seat of every slot.
+ */
+final class ScheduleSnapshot {
+    private static final int MAGIC = 0x4d48534e;
+    private static final int VERSION = 2;
+    private static final int HEADER_LENGTH = 32;
+    private static final int SLOTS_PER_DAY = SlotStore.SLOTS_PER_DAY;
+
+    private ScheduleSnapshot() {
+    }
+
+    private static long length(int days, int slotCapacity) {
+        long slots = (long) days * SLOTS_PER_DAY;
+        return HEADER_LENGTH + 8 * slots + 16 * slots * slotCapacity;
+    }
+
+    /**
+     * Writes the days of the store from its first day up to its last booked
+     * day to a new file replacing the given one once complete. Bookings made
+     * while the snapshot is written may or may not be part of it.
+     * @param store - the SlotStore to write
+     * @param path - the path of the snapshot file
+     * @throws IOException if the snapshot cannot be written
+     */
+    static void write(SlotStore store, Path path) throws IOException {
+        long originDay = store.firstDay();
+        int days = (int) Math.max(0L, store.lastDay() - originDay + 1);
+        int slotCapacity = store.slotCapacity();
+        int[] dayIndexes = new int[days];
+        for (int day = 0; day < days; day++) {
+            dayIndexes[day] = store.dayIndex(originDay + day);
+        }
+        long length = length(days, slotCapacity);
+        Path directory = path.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory,
+        path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(
+                FileChannel.MapMode.READ_WRITE, 0, length);
+                buffer.position(HEADER_LENGTH);
+                // A day retired meanwhile is written without bookings
+                for (int dayIndex : dayIndexes) {
+                    for (int i = 0; i < SLOTS_PER_DAY; i++) {
+                        buffer.putLong(dayIndex < 0 ? 0L
+                            : store.seats(SlotStore.slot(dayIndex, i)));
+                    }
+                }
+                for (int dayIndex : dayIndexes) {
+                    for (int i = 0; i < SLOTS_PER_DAY; i++) {
+                        int slot = SlotStore.slot(Math.max(dayIndex, 0), i);
+                        for (int seat = 0; seat < slotCapacity; seat++) {
+                            buffer.putLong(store.productMsb(slot, seat));
+                            buffer.putLong(store.productLsb(slot, seat));
+                        }
+                    }
+                }
+                buffer.putInt(0, MAGIC).putInt(4, VERSION)
+                .putInt(8, SLOTS_PER_DAY).putInt(12, days)
+                .putLong(16, originDay)
+                .putInt(28, slotCapacity)
+                .putInt(24, checksum(buffer, length));
+                buffer.force();
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Reads the capacity of a slot of a snapshot file
+     * @param path - the path of the snapshot file
+     * @return the number of deliveries of a slot
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    static int slotCapacity(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+            StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            int read = 0;
+            while (header.hasRemaining() && read >= 0) {
+                read = channel.read(header);
+            }
+            header.flip();
+            checkHeader(header);
+            return header.getInt(28);
+        }
+    }
+
+    private static void checkHeader(ByteBuffer header) throws IOException {
+        if (header.limit() < HEADER_LENGTH || header.getInt(0) != MAGIC)
+            throw new IOException("Not a schedule snapshot");
+        if (header.getInt(4) != VERSION
+            || header.getInt(8) != SLOTS_PER_DAY)
+            throw new IOException("Unsupported schedule snapshot version "
+            + header.getInt(4));
+    }
+
+    /**
+     * Reads the bookings of a snapshot file
+     * @param path - the path of the snapshot file
+     * @param replayer - the Replayer to call for each booked slot
+     * @throws IOException if the file cannot be read or is not a valid
+     * snapshot
+     */
+    static void read(Path path, BookingJournal.Replayer replayer)
+    throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+            StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(
+            FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            checkHeader(buffer);
+            int days = buffer.getInt(12);
+            long originDay = buffer.getLong(16);
+            int slotCapacity = buffer.getInt(28);
+            long length = buffer.limit();
+            if (days < 0 || slotCapacity < 1
+                || slotCapacity > SlotStore.MAX_SLOT_CAPACITY
+                || length != length(days, slotCapacity)
+                || buffer.getInt(24) != checksum(buffer, length))
+                throw new IOException("Corrupted schedule snapshot");
+            int slots = days * SLOTS_PER_DAY;
+            int productIds = HEADER_LENGTH + 8 * slots;
+            for (int slot = 0; slot < slots; slot++) {
+                long taken = buffer.getLong(HEADER_LENGTH + 8 * slot);
+                for (; taken != 0; taken &= taken - 1) {
+                    int seat = Long.numberOfTrailingZeros(taken);
+                    int offset = productIds
+                    + 16 * (slot * slotCapacity + seat);
+                    replayer.booked(originDay + slot / SLOTS_PER_DAY,
+                    slot % SLOTS_PER_DAY, buffer.getLong(offset),
+                    buffer.getLong(offset + 8));
+                }
+            }
+        }
+    }
+
+    private static int checksum(ByteBuffer buffer, long length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(HEADER_LENGTH)
+        .limit((int) length));
+        return (int) crc.getValue();
+    }
+}
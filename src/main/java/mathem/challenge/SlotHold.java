@@ -0,0 +1,77 @@
+package mathem.challenge;
+
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A seat of a delivery slot held for a product by
+ * DeliveryService.holdDelivery, for instance while the customer pays. The
+ * seat is hidden from the other checkouts until the hold is confirmed into a
+ * delivery, released, or expires.
+ */
+public final class SlotHold {
+    final DeliveryService deliveryService;
+    final long epochDay;
+    final int dayIndex;
+    final int slotIndex;
+    final int seat;
+    final long expiryMillis;
+    private final UUID productId;
+    private final String deliveryDate;
+    private final AtomicBoolean settled = new AtomicBoolean();
+
+    SlotHold(DeliveryService deliveryService, long epochDay, int dayIndex,
+             int slotIndex, int seat, UUID productId, String deliveryDate,
+             long expiryMillis) {
+        this.deliveryService = deliveryService;
+        this.epochDay = epochDay;
+        this.dayIndex = dayIndex;
+        this.slotIndex = slotIndex;
+        this.seat = seat;
+        this.productId = productId;
+        this.deliveryDate = deliveryDate;
+        this.expiryMillis = expiryMillis;
+    }
+
+    /**
+     * Ends the hold, once only
+     * @return a boolean value equal to true if the hold was not already
+     * confirmed, released or expired
+     */
+    boolean settle() {
+        return settled.compareAndSet(false, true);
+    }
+
+    public UUID getProductId() {
+        return productId;
+    }
+
+    /**
+     * @return the ISO-8601 representation of the beginning of the slot in
+     * UTC
+     */
+    public String getDeliveryDate() {
+        return deliveryDate;
+    }
+
+    /**
+     * @return the instant after which the hold cannot be confirmed anymore
+     */
+    public Instant getExpiry() {
+        return Instant.ofEpochMilli(expiryMillis);
+    }
+
+    /**
+     * @return true until the hold is confirmed, released, or released by
+     * its expiry
+     */
+    public boolean isHeld() {
+        return !settled.get();
+    }
+
+    @Override public String toString() {
+        return deliveryDate + " held for " + productId + " until "
+        + getExpiry();
+    }
+}
@@ -0,0 +1,459 @@
+package mathem.challenge;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Compact store of the bookings of a DeliveryService, made of parallel
+ * primitive arrays instead of one object per booking. A slot is encoded in
+ * an int as the index of its day in the store times SLOTS_PER_DAY plus the
+ * index of the hourly slot in the day.
+ *
+ * The store holds a rolling window of capacityDays days starting on its
+ * first day, in a ring of day buckets where the index of a day is its epoch
+ * day modulo the number of buckets. Moving the window to a later day with
+ * advance retires the days before it and opens the same number of empty
+ * days at its end, clearing only the buckets of the opened days, so the
+ * memory of the store is fixed however long it runs. The ring has one bucket
+ * more than the window so that the bucket of a day opened at midnight is the
+ * one of the day retired the midnight before, not the one of the day just
+ * retired, which a booking that checked the window before midnight may still
+ * be writing.
+ *
+ * Each slot takes up to slotCapacity deliveries, one per seat in the vans of
+ * the slot. The taken seats of each slot are a bitmask updated by
+ * compare-and-set, so that a seat is never booked twice and reservations
+ * need no lock, and each day has a bitmask of its full slots so that the
+ * first slot with a free seat is found without reading the slots. The
+ * product delivered in a seat is stored as the two longs of its UUID.
+ *
+ * A seat can also be held, taken like a booked seat but marked in the
+ * bitmask of the held seats of its slot until it is confirmed or released.
+ * The held seats are not free and not counted as deliveries. Every seat is
+ * taken through that mark: its held bit is set by compare-and-set, then its
+ * seat bit, then the product is written, and a booking clears the held bit
+ * at once, so a booked seat is only seen once it carries its own product
+ * and never with the product of the seat's previous booking. A hold frees
+ * its seat before unmarking it, so a hold is never seen as a delivery.
+ */
+final class SlotStore {
+    static final int SLOTS_PER_DAY = DeliveryService.MAX_DELIVERIES;
+    static final int FULL_DAY = (1 << SLOTS_PER_DAY) - 1;
+    static final int MAX_SLOT_CAPACITY = Long.SIZE;
+    static final int NO_SLOT = -1;
+
+    private final int capacityDays;
+    private final int buckets;
+    private final int slotCapacity;
+    private final long fullSlot;
+    // The epoch day held by each bucket, written before firstDay is
+    private final long[] bucketDays;
+    private final AtomicIntegerArray fullSlots;
+    private final AtomicLongArray seats;
+    private final AtomicLongArray held;
+    private final AtomicLongArray productIds;
+    private volatile long firstDay;
+    private final AtomicLong lastDay;
+
+    /**
+     * @param originDay - the epoch day of the first day of the store
+     * @param capacityDays - the number of days held by the store at a time
+     * @param slotCapacity - the number of deliveries of a slot, from 1 to
+     * MAX_SLOT_CAPACITY
+     */
+    SlotStore(long originDay, int capacityDays, int slotCapacity) {
+        if (slotCapacity < 1 || slotCapacity > MAX_SLOT_CAPACITY)
+            throw new IllegalArgumentException("Slot capacity "
+            + slotCapacity + " is not between 1 and " + MAX_SLOT_CAPACITY);
+        this.capacityDays = capacityDays;
+        this.buckets = capacityDays + 1;
+        this.slotCapacity = slotCapacity;
+        this.fullSlot = -1L >>> (Long.SIZE - slotCapacity);
+        this.bucketDays = new long[buckets];
+        this.fullSlots = new AtomicIntegerArray(buckets);
+        this.seats = new AtomicLongArray(buckets * SLOTS_PER_DAY);
+        this.held = new AtomicLongArray(buckets * SLOTS_PER_DAY);
+        this.productIds = new AtomicLongArray(2 * buckets * SLOTS_PER_DAY
+        * slotCapacity);
+        for (long day = originDay - 1; day < originDay + capacityDays; day++) {
+            bucketDays[bucket(day)] = day;
+        }
+        this.firstDay = originDay;
+        this.lastDay = new AtomicLong(originDay - 1);
+    }
+
+    private int bucket(long epochDay) {
+        return (int) Math.floorMod(epochDay, (long) buckets);
+    }
+
+    /**
+     * @param epochDay - the epoch day of a day
+     * @return the index of the day in the store or -1 if the store does not
+     * hold the day
+     */
+    int dayIndex(long epochDay) {
+        long index = epochDay - firstDay;
+        return index < 0 || index >= capacityDays ? -1 : bucket(epochDay);
+    }
+
+    /**
+     * @param dayIndex - the index of a day in the store
+     * @return the epoch day of the day
+     */
+    long epochDay(int dayIndex) {
+        return bucketDays[dayIndex];
+    }
+
+    /**
+     * @return the epoch day of the first day held by the store
+     */
+    long firstDay() {
+        return firstDay;
+    }
+
+    /**
+     * Moves the window of the store to start on a later day, retiring the
+     * days before it with their bookings and opening empty days at its end.
+     * Only the first call for a day takes a lock, the others read firstDay.
+     * @param epochDay - the epoch day of the new first day
+     * @return true if the window moved
+     */
+    boolean advance(long epochDay) {
+        if (epochDay <= firstDay)
+            return false;
+        synchronized (this) {
+            long first = firstDay;
+            if (epochDay <= first)
+                return false;
+            long end = epochDay + capacityDays;
+            for (long day = Math.max(first + capacityDays, end - buckets);
+                day < end; day++) {
+                int bucket = bucket(day);
+                for (int slot = slot(bucket, 0); slot < slot(bucket + 1, 0);
+                    slot++) {
+                    seats.set(slot, 0L);
+                    held.set(slot, 0L);
+                }
+                fullSlots.set(bucket, 0);
+                bucketDays[bucket] = day;
+            }
+            firstDay = epochDay;
+            return true;
+        }
+    }
+
+    static int slot(int dayIndex, int slotIndex) {
+        return dayIndex * SLOTS_PER_DAY + slotIndex;
+    }
+
+    int slotCapacity() {
+        return slotCapacity;
+    }
+
+    /**
+     * Returns the booked seats of a slot. The seats and the held seats are
+     * read in turn twice, so that a seat being taken, whose held bit is set
+     * before its seat bit, or a held seat being released, whose seat bit is
+     * cleared before its held bit, is not taken for a booked seat. A seat
+     * freed and taken again between the reads is either still held on the
+     * last read or carries the product of its new booking.
+     * @param slot - the slot code
+     * @return the bitmask of the booked seats of the slot, not held
+     */
+    long seats(int slot) {
+        long taken = seats.get(slot);
+        taken &= ~held.get(slot) & seats.get(slot);
+        return taken & ~held.get(slot);
+    }
+
+    /**
+     * @param dayIndex - the index of a day in the store
+     * @return the number of deliveries of the day
+     */
+    int count(int dayIndex) {
+        int count = 0;
+        for (int slot = slot(dayIndex, 0); slot < slot(dayIndex + 1, 0);
+            slot++) {
+            count += Long.bitCount(seats(slot));
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of deliveries of the days held by the store
+     */
+    int count() {
+        return count(firstDay);
+    }
+
+    /**
+     * @param fromDay - the epoch day of the first day to count
+     * @return the number of deliveries of the days held by the store from
+     * fromDay on
+     */
+    int count(long fromDay) {
+        int count = 0;
+        for (long day = Math.max(firstDay, fromDay); day <= lastDay.get();
+            day++) {
+            int dayIndex = dayIndex(day);
+            if (dayIndex >= 0)
+                count += count(dayIndex);
+        }
+        return count;
+    }
+
+    /**
+     * @param dayIndex - the index of a day in the store
+     * @return the number of deliveries the day can still take
+     */
+    int freeSeats(int dayIndex) {
+        int taken = 0;
+        for (int slot = slot(dayIndex, 0); slot < slot(dayIndex + 1, 0);
+            slot++) {
+            taken += Long.bitCount(seats.get(slot));
+        }
+        return SLOTS_PER_DAY * slotCapacity - taken;
+    }
+
+    /**
+     * @param dayIndex - the index of a day in the store
+     * @return the index of the first slot of the day with a free seat or
+     * NO_SLOT if the day is full
+     */
+    int freeSlot(int dayIndex) {
+        int mask = fullSlots.get(dayIndex);
+        return mask == FULL_DAY ? NO_SLOT : Integer.numberOfTrailingZeros(~mask);
+    }
+
+    /**
+     * @param dayIndex - the index of a day in the store
+     * @return the bitmask of the slots of the day with a free seat, indexed
+     * by slot index
+     */
+    int freeSlots(int dayIndex) {
+        return ~fullSlots.get(dayIndex) & FULL_DAY;
+    }
+
+    /**
+     * Books a seat of a given slot for a product
+     * @param dayIndex - the index of the day in the store
+     * @param slotIndex - the index of the slot in the day
+     * @param msb - the most significant bits of the product UUID
+     * @param lsb - the least significant bits of the product UUID
+     * @return the index of the booked seat or NO_SLOT if the slot is full
+     */
+    int book(int dayIndex, int slotIndex, long msb, long lsb) {
+        int seat = reserve(dayIndex, slotIndex);
+        if (seat < 0)
+            return NO_SLOT;
+        booked(dayIndex, slotIndex, seat, msb, lsb);
+        confirm(dayIndex, slotIndex, seat);
+        return seat;
+    }
+
+    /**
+     * Books a seat of the first slot of a day with a free seat for a product
+     * @param dayIndex - the index of the day in the store
+     * @param msb - the most significant bits of the product UUID
+     * @param lsb - the least significant bits of the product UUID
+     * @return the seat code of the booked seat, the index of its slot in the
+     * day times MAX_SLOT_CAPACITY plus the index of the seat, or NO_SLOT if
+     * the day is full
+     */
+    int bookFirstFree(int dayIndex, long msb, long lsb) {
+        return takeFirstFree(dayIndex, msb, lsb, false);
+    }
+
+    /**
+     * Holds a seat of the first slot of a day with a free seat for a product,
+     * until it is confirmed or released
+     * @param dayIndex - the index of the day in the store
+     * @param msb - the most significant bits of the product UUID
+     * @param lsb - the least significant bits of the product UUID
+     * @return the seat code of the held seat or NO_SLOT if the day is full
+     */
+    int holdFirstFree(int dayIndex, long msb, long lsb) {
+        return takeFirstFree(dayIndex, msb, lsb, true);
+    }
+
+    private int takeFirstFree(int dayIndex, long msb, long lsb,
+                              boolean hold) {
+        while (true) {
+            int mask = fullSlots.get(dayIndex);
+            if (mask == FULL_DAY)
+                return NO_SLOT;
+            int slotIndex = Integer.numberOfTrailingZeros(~mask);
+            int seat = reserve(dayIndex, slotIndex);
+            if (seat >= 0) {
+                booked(dayIndex, slotIndex, seat, msb, lsb);
+                if (!hold)
+                    confirm(dayIndex, slotIndex, seat);
+                return slotIndex * MAX_SLOT_CAPACITY + seat;
+            }
+        }
+    }
+
+    /**
+     * Turns a held seat into a booked seat, visible with its product
+     * @param dayIndex - the index of the day in the store
+     * @param slotIndex - the index of the slot in the day
+     * @param seat - the index of the held seat
+     */
+    void confirm(int dayIndex, int slotIndex, int seat) {
+        held.accumulateAndGet(slot(dayIndex, slotIndex), ~(1L << seat),
+        (a, b) -> a & b);
+    }
+
+    /**
+     * Frees a booked seat, making it visible to the checkouts at once
+     * @param dayIndex - the index of the day in the store
+     * @param slotIndex - the index of the slot in the day
+     * @param seat - the index of the seat
+     */
+    void release(int dayIndex, int slotIndex, int seat) {
+        seats.accumulateAndGet(slot(dayIndex, slotIndex), ~(1L << seat),
+        (a, b) -> a & b);
+        fullSlots.accumulateAndGet(dayIndex, ~(1 << slotIndex),
+        (a, b) -> a & b);
+    }
+
+    /**
+     * Frees a held seat. The seat is freed before it stops being held, so
+     * that it is never seen as a delivery, and no other hold can mark it
+     * before it is unmarked.
+     * @param dayIndex - the index of the day in the store
+     * @param slotIndex - the index of the slot in the day
+     * @param seat - the index of the held seat
+     */
+    void releaseHeld(int dayIndex, int slotIndex, int seat) {
+        int slot = slot(dayIndex, slotIndex);
+        seats.accumulateAndGet(slot, ~(1L << seat), (a, b) -> a & b);
+        held.accumulateAndGet(slot, ~(1L << seat), (a, b) -> a & b);
+        fullSlots.accumulateAndGet(dayIndex, ~(1 << slotIndex),
+        (a, b) -> a & b);
+    }
+
+    /**
+     * Marks the first free seat of a slot held, then takes it, marking the
+     * slot full in the mask of its day when the seat is the last one. The
+     * seats are marked by compare-and-set, so a held bit is owned by one
+     * caller. The mark of a seat taken and confirmed meanwhile by another
+     * caller may be won on a stale read, it is then cleared and the next
+     * seat tried.
+     * @return the index of the seat, still marked held, or -1 if the slot
+     * is full
+     */
+    private int reserve(int dayIndex, int slotIndex) {
+        int slot = slot(dayIndex, slotIndex);
+        while (true) {
+            long taken = seats.get(slot);
+            if (taken == fullSlot) {
+                markFull(dayIndex, slotIndex);
+                return -1;
+            }
+            long marked = held.get(slot);
+            if ((taken | marked) == fullSlot) {
+                Thread.onSpinWait();
+                continue;
+            }
+            int seat = Long.numberOfTrailingZeros(~(taken | marked));
+            long bit = 1L << seat;
+            if (!held.compareAndSet(slot, marked, marked | bit))
+                continue;
+            while ((taken & bit) == 0
+                && !seats.compareAndSet(slot, taken, taken | bit)) {
+                taken = seats.get(slot);
+            }
+            if ((taken & bit) == 0) {
+                if ((taken | bit) == fullSlot)
+                    markFull(dayIndex, slotIndex);
+                return seat;
+            }
+            held.accumulateAndGet(slot, ~bit, (a, b) -> a & b);
+        }
+    }
+
+    /**
+     * @param dayIndex - the index of the day in the store
+     * @param slotIndex - the index of the slot in the day
+     * @param seat - the index of a seat of the slot
+     * @param msb - the most significant bits of the product UUID
+     * @param lsb - the least significant bits of the product UUID
+     * @return true if the seat is booked, not held, for the product
+     */
+    boolean isBooked(int dayIndex, int slotIndex, int seat, long msb,
+                     long lsb) {
+        int slot = slot(dayIndex, slotIndex);
+        return (seats(slot) & 1L << seat) != 0
+            && productMsb(slot, seat) == msb && productLsb(slot, seat) == lsb;
+    }
+
+    /**
+     * @param dayIndex - the index of the day in the store
+     * @param slotIndex - the index of the slot in the day
+     * @param msb - the most significant bits of the product UUID
+     * @param lsb - the least significant bits of the product UUID
+     * @return the index of the last seat of the slot booked for the product
+     * or NO_SLOT if there is none
+     */
+    int bookedSeat(int dayIndex, int slotIndex, long msb, long lsb) {
+        int slot = slot(dayIndex, slotIndex);
+        long booked = seats(slot);
+        for (int seat = slotCapacity - 1; seat >= 0; seat--) {
+            if ((booked & 1L << seat) != 0 && productMsb(slot, seat) == msb
+                && productLsb(slot, seat) == lsb)
+                return seat;
+        }
+        return NO_SLOT;
+    }
+
+    private void markFull(int dayIndex, int slotIndex) {
+        int bit = 1 << slotIndex;
+        int mask;
+        do {
+            mask = fullSlots.get(dayIndex);
+            if ((mask & bit) != 0)
+                return;
+        } while (!fullSlots.compareAndSet(dayIndex, mask, mask | bit));
+        // A seat released since the slot was seen full must stay visible
+        if (seats.get(slot(dayIndex, slotIndex)) != fullSlot)
+            fullSlots.accumulateAndGet(dayIndex, ~bit, (a, b) -> a & b);
+    }
+
+    private void booked(int dayIndex, int slotIndex, int seat, long msb,
+                        long lsb) {
+        int index = 2 * (slot(dayIndex, slotIndex) * slotCapacity + seat);
+        productIds.set(index, msb);
+        productIds.set(index + 1, lsb);
+        long epochDay = bucketDays[dayIndex];
+        if (epochDay > lastDay.get())
+            lastDay.accumulateAndGet(epochDay, Math::max);
+    }
+
+    /**
+     * @param slot - the slot code
+     * @param seat - the index of a taken seat of the slot
+     * @return the most significant bits of the UUID of the product
+     */
+    long productMsb(int slot, int seat) {
+        return productIds.get(2 * (slot * slotCapacity + seat));
+    }
+
+    /**
+     * @param slot - the slot code
+     * @param seat - the index of a taken seat of the slot
+     * @return the least significant bits of the UUID of the product
+     */
+    long productLsb(int slot, int seat) {
+        return productIds.get(2 * (slot * slotCapacity + seat) + 1);
+    }
+
+    /**
+     * @return the epoch day of the last day with a booking, before the first
+     * day of the store if it holds no booking
+     */
+    long lastDay() {
+        return lastDay.get();
+    }
+}
@@ -0,0 +1,134 @@
+package mathem.challenge;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel expiring entries at their deadline, to within one
+ * tick, in the manner of the wheel of Varghese and Lauck: time is cut in
+ * ticks of tickMillis and an entry is kept in the bucket of its deadline
+ * tick modulo the number of buckets. Each elapsed tick visits one bucket,
+ * expiring its entries due and keeping the ones due in a later turn of the
+ * wheel, so scheduling and expiring an entry are O(1) whatever the number of
+ * entries.
+ *
+ * Entries are scheduled lock-free onto a stack and moved to their bucket by
+ * the thread expiring the wheel. The wheel has no thread of its own: expire
+ * is called with the current time by the users of the wheel, and only one
+ * of them moves it at a time while the others return, after a single
+ * volatile read when no tick has elapsed. An entry is not removed from the
+ * wheel when cancelled, the callback of its expiry ignores it instead.
+ */
+final class TimingWheel<E> {
+    private final long tickMillis;
+    private final Node<E>[] buckets;
+    private final Consumer<? super E> expired;
+    private final AtomicReference<Node<E>> scheduled =
+    new AtomicReference<Node<E>>();
+    private final ReentrantLock lock = new ReentrantLock();
+    // The last tick whose bucket was expired
+    private long tick;
+    // The time at which the tick after the next one starts
+    private volatile long nextExpiry;
+
+    private static final class Node<E> {
+        private final E entry;
+        private final long deadline;
+        private Node<E> next;
+
+        private Node(E entry, long deadline) {
+            this.entry = entry;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * @param tickMillis - the duration of a tick in milliseconds
+     * @param ticksPerWheel - the number of buckets of the wheel
+     * @param startMillis - the current time in milliseconds
+     * @param expired - the callback of each expired entry
+     */
+    @SuppressWarnings("unchecked")
+    TimingWheel(long tickMillis, int ticksPerWheel, long startMillis,
+                Consumer<? super E> expired) {
+        this.tickMillis = tickMillis;
+        this.buckets = (Node<E>[]) new Node<?>[ticksPerWheel];
+        this.expired = expired;
+        this.tick = startMillis / tickMillis - 1;
+        this.nextExpiry = (tick + 2) * tickMillis;
+    }
+
+    /**
+     * Schedules the expiry of an entry
+     * @param entry - the entry to expire
+     * @param deadline - the time in milliseconds at which the entry expires
+     */
+    void schedule(E entry, long deadline) {
+        Node<E> node = new Node<E>(entry, deadline);
+        Node<E> head;
+        do {
+            head = scheduled.get();
+            node.next = head;
+        } while (!scheduled.compareAndSet(head, node));
+    }
+
+    /**
+     * Expires the entries due at the given time, unless another thread is
+     * expiring the wheel
+     * @param nowMillis - the current time in milliseconds
+     * @return the number of entries expired
+     */
+    int expire(long nowMillis) {
+        if (nowMillis < nextExpiry || !lock.tryLock())
+            return 0;
+        try {
+            int count = 0;
+            long now = nowMillis / tickMillis;
+            for (Node<E> node = scheduled.getAndSet(null); node != null;) {
+                Node<E> next = node.next;
+                if (node.deadline <= nowMillis) {
+                    expired.accept(node.entry);
+                    count++;
+                } else {
+                    int bucket = bucket(node.deadline / tickMillis);
+                    node.next = buckets[bucket];
+                    buckets[bucket] = node;
+                }
+                node = next;
+            }
+            // The ticks elapsed, at most one turn of the wheel
+            for (long t = Math.max(tick + 1, now - buckets.length);
+                t < now; t++) {
+                count += expire(bucket(t), nowMillis);
+            }
+            tick = Math.max(tick, now - 1);
+            nextExpiry = (tick + 2) * tickMillis;
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int bucket(long tick) {
+        return (int) Math.floorMod(tick, (long) buckets.length);
+    }
+
+    private int expire(int bucket, long nowMillis) {
+        int count = 0;
+        Node<E> kept = null;
+        for (Node<E> node = buckets[bucket]; node != null;) {
+            Node<E> next = node.next;
+            if (node.deadline <= nowMillis) {
+                expired.accept(node.entry);
+                count++;
+            } else {
+                node.next = kept;
+                kept = node;
+            }
+            node = next;
+        }
+        buckets[bucket] = kept;
+        return count;
+    }
+}
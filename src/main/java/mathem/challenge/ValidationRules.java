@@ -0,0 +1,99 @@
+package mathem.challenge;
+
+import java.time.DayOfWeek;
+
+import mathem.challenge.Product.ProductType;
+
+/**
+ * The validity rules of the delivery constraints of the products, compiled
+ * once into a table of the minimum days in advance indexed by product type
+ * and weekday mask:
+ * - a product must have at least one delivery day
+ * - an EXTERNAL product must be ordered at least 5 days in advance
+ * - a TEMPORARY product cannot be delivered on SATURDAY or SUNDAY
+ * A product is valid when its days in advance reach the entry of its type
+ * and delivery days, so checking a product is one lookup and one comparison
+ * without branching on its type.
+ */
+final class ValidationRules {
+    static final int WEEKDAY_MASKS = 1 << 7;
+    private static final int WEEKEND = 1 << DayOfWeek.SATURDAY.ordinal()
+    | 1 << DayOfWeek.SUNDAY.ordinal();
+    private static final int ALWAYS = Integer.MIN_VALUE;
+    private static final int NEVER = Integer.MAX_VALUE;
+    private static final int[] MIN_DAYS_IN_ADVANCE = compile();
+
+    private ValidationRules() {
+    }
+
+    private static int[] compile() {
+        ProductType[] types = ProductType.values();
+        int[] table = new int[types.length * WEEKDAY_MASKS];
+        for (ProductType type : types) {
+            for (int mask = 0; mask < WEEKDAY_MASKS; mask++) {
+                table[type.ordinal() * WEEKDAY_MASKS + mask] =
+                minDaysInAdvance(type, mask);
+            }
+        }
+        return table;
+    }
+
+    private static int minDaysInAdvance(ProductType type, int weekdayMask) {
+        if (weekdayMask == 0)
+            return NEVER;
+        switch (type) {
+        case EXTERNAL:
+            return 5;
+        case TEMPORARY:
+            return (weekdayMask & WEEKEND) == 0 ? ALWAYS : NEVER;
+        default:
+            return ALWAYS;
+        }
+    }
+
+    /**
+     * @param type - the ordinal of the product type
+     * @param weekdayMask - the delivery days as a bitmask indexed by
+     * DayOfWeek ordinal
+     * @param daysInAdvance - the days in advance constraint
+     * @return true if the constraints are valid
+     */
+    static boolean isValid(int type, int weekdayMask, int daysInAdvance) {
+        return saturate(daysInAdvance) >= MIN_DAYS_IN_ADVANCE[type
+        * WEEKDAY_MASKS + weekdayMask];
+    }
+
+    /**
+     * Saturates days in advance to a byte, which keeps the result of every
+     * rule as the rules only look at the first days, and keeps the values
+     * below NEVER
+     */
+    static byte saturate(int daysInAdvance) {
+        return (byte) Math.max(Byte.MIN_VALUE,
+            Math.min(Byte.MAX_VALUE, daysInAdvance));
+    }
+
+    /**
+     * Writes the indexes of the valid rows of columns of constraints to a
+     * selection vector. The loop does not branch on the rows: the index of
+     * every row is written and the count only moves past the valid ones.
+     * @param types - the ordinals of the product types
+     * @param weekdayMasks - the delivery days as bitmasks
+     * @param daysInAdvance - the days in advance constraints, saturated
+     * with saturate
+     * @param length - the number of rows
+     * @param selection - the selection vector of at least length indexes
+     * @return the number of valid rows
+     */
+    static int select(byte[] types, byte[] weekdayMasks, byte[] daysInAdvance,
+                      int length, int[] selection) {
+        int[] table = MIN_DAYS_IN_ADVANCE;
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            selection[count] = i;
+            int rule = types[i] * WEEKDAY_MASKS + weekdayMasks[i];
+            count += daysInAdvance[i] >= table[rule] ? 1 : 0;
+        }
+        return count;
+    }
+}
@@ -6,8 +6,27 @@ import mathem.challenge.Product.ProductType;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.List;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
 
 public class AppTest {
     @Test public void testCreateDefaultProduct() {
@@ -41,4 +60,267 @@ public class AppTest {
         assertFalse(p2.isValid());
         assertTrue(p3.isValid());
     }
+
+    @Test public void testProductBatch() {
+        List<Product> products = new ArrayList<Product>();
+        List<Product> expected = new ArrayList<Product>();
+        int[] leads = { Integer.MIN_VALUE, -1, 0, 4, 5, 6, 200,
+            Integer.MAX_VALUE };
+        for (ProductType type : ProductType.values()) {
+            for (int mask = 0; mask < 1 << 7; mask++) {
+                EnumSet<DayOfWeek> days = EnumSet.noneOf(DayOfWeek.class);
+                for (DayOfWeek day : DayOfWeek.values()) {
+                    if ((mask & 1 << day.ordinal()) != 0)
+                        days.add(day);
+                }
+                for (int lead : leads) {
+                    Product product = Product.create("p" + products.size(),
+                        type, days, lead);
+                    products.add(product);
+                    // The rules as written before they were compiled
+                    if ((type == ProductType.NORMAL
+                        || (type == ProductType.EXTERNAL && lead >= 5)
+                        || (type == ProductType.TEMPORARY
+                            && Collections.disjoint(days, EnumSet.range(
+                            DayOfWeek.SATURDAY, DayOfWeek.SUNDAY))))
+                        && !days.isEmpty())
+                        expected.add(product);
+                }
+            }
+        }
+        ProductBatch batch = new ProductBatch(products);
+        assertEquals(products.size(), batch.size());
+        assertEquals(expected, batch.validProducts());
+        for (Product product : products) {
+            assertEquals(expected.contains(product), product.isValid());
+        }
+        assertTrue(new ProductBatch(new ArrayList<Product>()).validProducts()
+            .isEmpty());
+    }
+
+    @Test public void testWriteDeliveryDates() throws IOException {
+        DeliveryService ds = new DeliveryService();
+        App app = new App(ds);
+        List<Product> products = new ArrayList<Product>();
+        for (int i = 0; i < 60; i++) {
+            products.add(Product.create("P" + i, ProductType.NORMAL,
+                EnumSet.of(DayOfWeek.of(1 + i % 7)), i % 4));
+        }
+        String postcode = "<12345>";
+        StringWriter out = new StringWriter();
+        app.writeDeliveryDates(postcode, products, out);
+        JsonArray arr = new JsonArray();
+        ds.getSchedule().forEach(value -> {
+            JsonObject obj = new JsonObject();
+            obj.addProperty("postalCode", postcode);
+            obj.addProperty("deliveryDate", value.getValue0().toString());
+            obj.addProperty("isGreenDelivery", value.getValue1());
+            arr.add(obj);
+        });
+        assertEquals(new Gson().toJson(arr), out.toString());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        app.writeDeliveryDates(postcode, new ArrayList<Product>(), bytes);
+        assertEquals(out.toString(), bytes.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test public void testPossibleDays() {
+        for (int mask = 0; mask < 128; mask++) {
+            EnumSet<DayOfWeek> deliveryDays = EnumSet.noneOf(DayOfWeek.class);
+            for (DayOfWeek weekday : DayOfWeek.values()) {
+                if ((mask & 1 << weekday.ordinal()) != 0)
+                    deliveryDays.add(weekday);
+            }
+            for (int daysInAdvance = 0; daysInAdvance <= 16; daysInAdvance++) {
+                Product product = Product.create("p", ProductType.NORMAL,
+                    deliveryDays, daysInAdvance);
+                List<LocalDate> expected = new ArrayList<LocalDate>();
+                LocalDate end = LocalDate.now().plusDays(14);
+                for (LocalDate d = LocalDate.now().plusDays(
+                    Math.max(1, daysInAdvance)); d.isBefore(end);
+                    d = d.plusDays(1)) {
+                    if (deliveryDays.contains(d.getDayOfWeek()))
+                        expected.add(d);
+                }
+                assertEquals(expected, App.possibleDays(product));
+            }
+        }
+    }
+
+    @Test public void testProductCatalog() {
+        ProductCatalog catalog = new ProductCatalog();
+        Product p1 = catalog.register("p1");
+        assertEquals(Product.create("p1").getProductId(), p1.getProductId());
+        assertSame(p1, catalog.register("p1"));
+        Product p2 = catalog.register("p2", ProductType.TEMPORARY,
+            EnumSet.of(DayOfWeek.MONDAY, DayOfWeek.FRIDAY), 2);
+        Product p3 = catalog.register("p3", ProductType.TEMPORARY,
+            EnumSet.of(DayOfWeek.FRIDAY, DayOfWeek.MONDAY), 2);
+        assertSame(p2.getProfile(), p3.getProfile());
+        assertTrue(p2.isValid());
+        Product p2Weekend = catalog.register("p2", ProductType.TEMPORARY,
+            EnumSet.of(DayOfWeek.SATURDAY), 2);
+        assertEquals(p2.getProductId(), p2Weekend.getProductId());
+        assertFalse(p2Weekend.isValid());
+        assertSame(p2Weekend, catalog.get("p2"));
+        assertEquals(3, catalog.countProfiles());
+
+        List<ProductCatalog.Entry> entries =
+        new ArrayList<ProductCatalog.Entry>();
+        for (int i = 0; i < 10000; i++) {
+            entries.add(new ProductCatalog.Entry("sku" + i,
+                ProductType.values()[i % 3],
+                EnumSet.of(DayOfWeek.of(1 + i % 7)), i % 10));
+        }
+        catalog.registerAll(entries);
+        assertEquals(10003, catalog.countProducts());
+        for (int i = 0; i < 10000; i += 997) {
+            Product expected = Product.create("sku" + i,
+                ProductType.values()[i % 3],
+                EnumSet.of(DayOfWeek.of(1 + i % 7)), i % 10);
+            Product product = catalog.get("sku" + i);
+            assertEquals(expected.getProductId(), product.getProductId());
+            assertEquals(expected.isValid(), product.isValid());
+            assertEquals(expected.getDeliveryDays(),
+            product.getDeliveryDays());
+        }
+    }
+
+    @Test public void testDepotRouter() throws IOException {
+        DepotRouter router = new DepotRouter();
+        router.addRoute("1", "north");
+        router.addRoute("123", "city");
+        router.addRoute("4", "south");
+        assertEquals("north", router.depot("19999"));
+        assertEquals("city", router.depot("123 45"));
+        assertEquals("north", router.depot("12"));
+        assertEquals("south", router.depot("40000"));
+        assertEquals(DepotRouter.DEFAULT_DEPOT, router.depot("70000"));
+        assertSame(router.deliveryService("12345"), router.shard("city"));
+
+        App app = new App(router);
+        List<Product> products = new ArrayList<Product>();
+        for (int i = 0; i < 20; i++) {
+            products.add(Product.create("P" + i));
+        }
+        app.writeDeliveryDates("12345", products, new StringWriter());
+        assertEquals(20, router.shard("city").countDeliveries());
+        assertEquals(0, router.shard("north").countDeliveries());
+        StringWriter out = new StringWriter();
+        app.writeDeliveryDates("40000", products.subList(0, 1), out);
+        assertEquals(1, router.shard("south").countDeliveries());
+        assertEquals(1, out.toString().split("postalCode").length - 1);
+    }
+
+    @Test public void testDeliveryServer() throws IOException,
+    InterruptedException {
+        DeliveryService ds = new DeliveryService();
+        App app = new App(ds);
+        ProductCatalog catalog = new ProductCatalog();
+        catalog.register("P1");
+        catalog.register("P 2", ProductType.NORMAL,
+        EnumSet.of(DayOfWeek.MONDAY), 2);
+        try (DeliveryServer server = new DeliveryServer(app, catalog,
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            String base = "http://localhost:" + server.getAddress().getPort()
+            + DeliveryServer.PATH;
+            HttpClient client = HttpClient.newHttpClient();
+            HttpResponse<String> response = client.send(post(base,
+                "postcode=12345&products=P1,P%202"),
+                HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, response.statusCode());
+            assertEquals(2, ds.countDeliveries());
+            StringWriter out = new StringWriter();
+            app.writeSchedule("12345", out);
+            assertEquals(out.toString(), response.body());
+            response = client.send(post(base,
+                "postcode=12345&products=P3"),
+                HttpResponse.BodyHandlers.ofString());
+            assertEquals(400, response.statusCode());
+            response = client.send(post(base, "products=P1"),
+                HttpResponse.BodyHandlers.ofString());
+            assertEquals(400, response.statusCode());
+            response = client.send(HttpRequest.newBuilder(URI.create(base
+                + "?postcode=12345&products=P1")).build(),
+                HttpResponse.BodyHandlers.ofString());
+            assertEquals(405, response.statusCode());
+            assertEquals("POST", response.headers().firstValue("Allow")
+            .orElse(null));
+            StringBuilder form = new StringBuilder("postcode=12345&products=");
+            while (form.length() <= DeliveryServer.MAX_BODY_LENGTH) {
+                form.append("P1,");
+            }
+            response = client.send(post(base, form.toString()),
+                HttpResponse.BodyHandlers.ofString());
+            assertEquals(413, response.statusCode());
+            assertEquals(2, ds.countDeliveries());
+        }
+    }
+
+    private static HttpRequest post(String uri, String form) {
+        return HttpRequest.newBuilder(URI.create(uri))
+        .header("Content-Type", "application/x-www-form-urlencoded")
+        .POST(HttpRequest.BodyPublishers.ofString(form)).build();
+    }
+
+    @Test public void testOrderPipeline() throws IOException {
+        DeliveryService ds = new DeliveryService();
+        ProductCatalog catalog = new ProductCatalog();
+        OrderPipeline pipeline = new OrderPipeline(new DepotRouter(ds),
+        catalog);
+        StringBuilder orders = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            orders.append("{\"postalCode\":\"12345\",\"products\":[")
+            .append("{\"productName\":\"P1\"},")
+            .append("{\"productName\":\"P2\",")
+            .append("\"productType\":\"EXTERNAL\",")
+            .append("\"deliveryDays\":[\"MONDAY\"],")
+            .append("\"daysInAdvance\":2}]}\n");
+        }
+        StringWriter out = new StringWriter();
+        assertEquals(100, pipeline.run(new StringReader(orders.toString()),
+            out));
+        String[] results = out.toString().split("\n");
+        assertEquals(100, results.length);
+        // Only P1 is valid and the 14 days of the period fit its deliveries
+        assertEquals(100, ds.countDeliveries());
+        assertEquals("{\"postalCode\":\"12345\",\"deliveries\":["
+            + "{\"productName\":\"P1\",\"scheduled\":true},"
+            + "{\"productName\":\"P2\",\"scheduled\":false}]}",
+            results[99]);
+        assertEquals(2, catalog.countProducts());
+        try {
+            pipeline.run(new StringReader("{\"products\":[]}\n"),
+            new StringWriter());
+            fail();
+        } catch (IOException e) {
+        }
+    }
+
+    @Test(timeout = 10000) public void testOrderPipelineFailure()
+    throws IOException {
+        // Validation fails on the first order while the parsing stage has
+        // more orders than its queue holds
+        DepotRouter router = new DepotRouter(new DeliveryService()) {
+            @Override public DeliveryService deliveryService(String postcode) {
+                if (postcode.equals("00000"))
+                    throw new IllegalArgumentException(postcode);
+                return super.deliveryService(postcode);
+            }
+        };
+        OrderPipeline pipeline = new OrderPipeline(router,
+        new ProductCatalog());
+        StringBuilder orders = new StringBuilder(
+            "{\"postalCode\":\"00000\",\"products\":[]}\n");
+        for (int i = 0; i < 4 * OrderPipeline.QUEUE_CAPACITY; i++) {
+            orders.append("{\"postalCode\":\"12345\",\"products\":[")
+            .append("{\"productName\":\"P1\"}]}\n");
+        }
+        try {
+            pipeline.run(new StringReader(orders.toString()),
+            new StringWriter());
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
 }
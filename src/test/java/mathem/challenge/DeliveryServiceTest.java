@@ -4,17 +4,56 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
 import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.Attribute;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.javatuples.Pair;
 
 import org.junit.Test;
 
@@ -25,6 +64,7 @@ public class DeliveryServiceTest {
     private static final int LAST_DELIVERY_SLOT = 19;
     private static final int MAX_DELIVERIES = 1
     + LAST_DELIVERY_SLOT - FIRST_DELIVERY_SLOT;
+    private static final ZoneId STOCKHOLM = ZoneId.of("Europe/Stockholm");
 
     private static Object invokeMethod(Method m, Object t, Object... args) {
         Object res = null;
@@ -38,6 +78,11 @@ public class DeliveryServiceTest {
         return res;
     }
 
+    private static DeliveryCalendar fixedCalendar(String instant) {
+        return new DeliveryCalendar(Clock.fixed(Instant.parse(instant),
+            STOCKHOLM));
+    }
+
     private static Object createDeliverySlot(DeliveryService ds,
                                              LocalDateTime localDateTime) {
         Class<?>[] classes = ds.getClass().getDeclaredClasses();
@@ -110,6 +155,66 @@ public class DeliveryServiceTest {
         }
     }
 
+    @Test public void testNextSlotSkipsTakenSlots() {
+        DeliveryService ds = new DeliveryService();
+        try {
+            Method nextSlot = ds.getClass().getDeclaredMethod("nextSlot",
+            new Class<?>[] { LocalDate.class });
+            nextSlot.setAccessible(true);
+            LocalDate day = LocalDate.now().plusDays(2);
+            ds.addSlot(day.atTime(FIRST_DELIVERY_SLOT, 0));
+            ds.addSlot(day.atTime(FIRST_DELIVERY_SLOT + 1, 0));
+            ds.addSlot(day.atTime(FIRST_DELIVERY_SLOT + 3, 0));
+            // Not one of the hourly slots, counted but never handed out
+            assertTrue(ds.addSlot(day.atTime(FIRST_DELIVERY_SLOT + 2, 30)));
+            assertFalse(ds.addSlot(day.atTime(FIRST_DELIVERY_SLOT + 2, 30)));
+            assertTrue(ds.addSlot(day.atTime(LAST_DELIVERY_SLOT + 1, 0)));
+            assertEquals(5, ds.countDeliveries(day));
+            Optional<?> o = (Optional<?>) invokeMethod(nextSlot, ds, day);
+            assertEquals(createDeliverySlot(ds,
+                day.atTime(FIRST_DELIVERY_SLOT + 2, 0)), o.get());
+            for (int i = FIRST_DELIVERY_SLOT; i <= LAST_DELIVERY_SLOT; i++) {
+                ds.addSlot(day.atTime(i, 0));
+            }
+            assertEquals(MAX_DELIVERIES + 2, ds.countDeliveries(day));
+            o = (Optional<?>) invokeMethod(nextSlot, ds, day);
+            assertFalse(o.isPresent());
+            o = (Optional<?>) invokeMethod(nextSlot, ds, day.plusDays(1));
+            assertEquals(createDeliverySlot(ds,
+                day.plusDays(1).atTime(FIRST_DELIVERY_SLOT, 0)), o.get());
+        } catch (NoSuchMethodException e) {
+            e.printStackTrace();
+        } catch (SecurityException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Test public void testSlotsOffTheGrid() throws IOException {
+        // Monday, Tuesday is a green day
+        DeliveryCalendar calendar = fixedCalendar("2020-05-11T10:00:00Z");
+        DeliveryService ds = new DeliveryService(calendar);
+        LocalDate monday = LocalDate.of(2020, 5, 11);
+        assertTrue(ds.addSlot(monday.atTime(FIRST_DELIVERY_SLOT, 0)));
+        assertTrue(ds.addSlot(monday.plusDays(1).atTime(LAST_DELIVERY_SLOT,
+            30)));
+        assertTrue(ds.addSlot(monday.plusDays(1).atTime(FIRST_DELIVERY_SLOT,
+            0)));
+        assertTrue(ds.addSlot(monday.atTime(7, 0)));
+        assertEquals(4, ds.countDeliveries());
+        assertEquals(2, ds.countDeliveries(monday));
+        List<String> visited = new ArrayList<String>();
+        ds.visitSchedule((deliveryDate, isGreen) -> visited.add(deliveryDate
+            + " " + isGreen));
+        assertEquals(Arrays.asList("2020-05-12T07:00Z true",
+            "2020-05-12T17:30Z true", "2020-05-11T05:00Z false",
+            "2020-05-11T07:00Z false"), visited);
+        List<String> schedule = new ArrayList<String>();
+        for (Pair<OffsetDateTime,Boolean> slot : ds.getSchedule()) {
+            schedule.add(slot.getValue0() + " " + slot.getValue1());
+        }
+        assertEquals(visited, schedule);
+    }
+
     @Test public void testAddSlot() {
         DeliveryService ds = new DeliveryService();
         try {
@@ -175,4 +280,946 @@ public class DeliveryServiceTest {
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    @Test public void testConcurrentScheduleDelivery()
+    throws InterruptedException {
+        DeliveryService ds = new DeliveryService();
+        int threads = 16;
+        int productsPerThread = 50;
+        List<LocalDate> possibleDays = new ArrayList<LocalDate>();
+        for (int i = 1; i < 14; i++) {
+            possibleDays.add(LocalDate.now().plusDays(i));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger scheduled = new AtomicInteger();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < productsPerThread; i++) {
+                    Product product = Product.create("P" + thread + "-" + i);
+                    // Half of the threads compete for the days in reverse
+                    List<LocalDate> days = new ArrayList<LocalDate>(
+                        possibleDays);
+                    if (thread % 2 == 1)
+                        Collections.reverse(days);
+                    if (ds.scheduleDelivery(days, product))
+                        scheduled.incrementAndGet();
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        int capacity = possibleDays.size() * MAX_DELIVERIES;
+        assertEquals(capacity, scheduled.get());
+        assertEquals(capacity, ds.countDeliveries());
+        for (LocalDate day : possibleDays) {
+            assertEquals(MAX_DELIVERIES, ds.countDeliveries(day));
+        }
+        List<Pair<OffsetDateTime,Boolean>> schedule = ds.getSchedule();
+        Set<OffsetDateTime> slots = new HashSet<OffsetDateTime>();
+        for (Pair<OffsetDateTime,Boolean> slot : schedule) {
+            assertTrue(slots.add(slot.getValue0()));
+        }
+        assertEquals(capacity, slots.size());
+    }
+
+    @Test public void testScheduleDeliveries() {
+        DeliveryService expected = new DeliveryService();
+        DeliveryService ds = new DeliveryService();
+        List<Product> products = new ArrayList<Product>();
+        for (int i = 0; i < 200; i++) {
+            EnumSet<DayOfWeek> deliveryDays = i % 3 == 0
+                ? EnumSet.allOf(DayOfWeek.class)
+                : EnumSet.of(DayOfWeek.of(1 + i % 7), DayOfWeek.of(1 + i % 5));
+            products.add(Product.create("P" + i, ProductType.NORMAL,
+                deliveryDays, i % 17));
+        }
+        boolean[] scheduled = ds.scheduleDeliveries(products);
+        assertEquals(products.size(), scheduled.length);
+        for (int i = 0; i < products.size(); i++) {
+            Product product = products.get(i);
+            assertEquals(expected.scheduleDelivery(App.possibleDays(product),
+                product), scheduled[i]);
+        }
+        assertEquals(expected.countDeliveries(), ds.countDeliveries());
+        assertEquals(expected.getSchedule(), ds.getSchedule());
+    }
+
+    @Test public void testGetSchedule() {
+        DeliveryService ds = new DeliveryService();
+        for (int i = 13; i > 0; i--) {
+            ds.addSlot(LocalDate.now().plusDays(i).atTime(LAST_DELIVERY_SLOT,
+                0));
+            ds.addSlot(LocalDate.now().plusDays(i).atTime(FIRST_DELIVERY_SLOT,
+                0));
+        }
+        List<Pair<OffsetDateTime,Boolean>> schedule = ds.getSchedule();
+        assertSame(schedule, ds.getSchedule());
+        assertEquals(26, schedule.size());
+        OffsetDateTime greenLimit = LocalDate.now().plusDays(3).atStartOfDay()
+        .atZone(ZoneId.systemDefault()).toOffsetDateTime();
+        for (int i = 1; i < schedule.size(); i++) {
+            Pair<OffsetDateTime,Boolean> previous = schedule.get(i - 1);
+            Pair<OffsetDateTime,Boolean> slot = schedule.get(i);
+            boolean previousFirst = previous.getValue1()
+                && previous.getValue0().isBefore(greenLimit);
+            boolean first = slot.getValue1()
+                && slot.getValue0().isBefore(greenLimit);
+            assertTrue(previousFirst || !first);
+            assertTrue(previousFirst != first
+                || previous.getValue0().isBefore(slot.getValue0()));
+        }
+        ds.addSlot(LocalDate.now().plusDays(1).atTime(FIRST_DELIVERY_SLOT + 1,
+            0));
+        assertNotSame(schedule, ds.getSchedule());
+        assertEquals(27, ds.getSchedule().size());
+        try {
+            ds.getSchedule().clear();
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+    }
+
+    @Test public void testFixedClockAcrossDaylightSavingTime() {
+        // Friday before the switch to summer time in Stockholm on Sunday
+        DeliveryCalendar calendar = fixedCalendar("2020-03-27T10:00:00Z");
+        DeliveryService ds = new DeliveryService(calendar);
+        assertEquals(LocalDate.of(2020, 3, 27), calendar.today());
+        assertEquals(Instant.parse("2020-03-28T23:00:00Z"),
+        calendar.startOfDay(LocalDate.of(2020, 3, 29)));
+        Product product = Product.create("P1");
+        assertTrue(ds.scheduleDelivery(Arrays.asList(LocalDate.of(2020, 3, 28),
+            LocalDate.of(2020, 3, 29)), product));
+        assertTrue(ds.scheduleDelivery(Arrays.asList(LocalDate.of(2020, 3, 29)),
+            product));
+        assertTrue(ds.scheduleDelivery(Arrays.asList(LocalDate.of(2020, 3, 30)),
+            product));
+        List<Pair<OffsetDateTime,Boolean>> schedule = ds.getSchedule();
+        assertEquals(Instant.parse("2020-03-28T08:00:00Z"),
+        schedule.get(0).getValue0().toInstant());
+        assertEquals(Instant.parse("2020-03-29T07:00:00Z"),
+        schedule.get(1).getValue0().toInstant());
+        assertEquals(Instant.parse("2020-03-30T07:00:00Z"),
+        schedule.get(2).getValue0().toInstant());
+        assertTrue(schedule.get(0).getValue1());
+        assertTrue(schedule.get(1).getValue1());
+        assertFalse(schedule.get(2).getValue1());
+        assertEquals(Arrays.asList(LocalDate.of(2020, 3, 28),
+            LocalDate.of(2020, 3, 29), LocalDate.of(2020, 3, 30)),
+            App.possibleDays(product, calendar).subList(0, 3));
+    }
+
+    @Test public void testBookingJournalReplay() throws IOException {
+        DeliveryCalendar calendar = fixedCalendar("2020-05-11T10:00:00Z");
+        Path path = Files.createTempFile("bookings", ".journal");
+        try {
+            List<Pair<OffsetDateTime,Boolean>> schedule;
+            try (BookingJournal journal = BookingJournal.open(path,
+                BookingJournal.Durability.SYNC)) {
+                DeliveryService ds = new DeliveryService(calendar, journal);
+                assertEquals(0, ds.countDeliveries());
+                Product product = Product.create("P1");
+                for (int i = 0; i < 12; i++) {
+                    assertTrue(ds.scheduleDelivery(Arrays.asList(
+                        LocalDate.of(2020, 5, 12), LocalDate.of(2020, 5, 13)),
+                        product));
+                }
+                assertTrue(ds.addSlot(LocalDateTime.of(2020, 5, 15, 10, 0)));
+                schedule = ds.getSchedule();
+            }
+            // A record torn by a crash is cut when the journal is reopened
+            long size = Files.size(path);
+            Files.write(path, new byte[] { 0, 0, 0, 26, 1, 2 },
+            StandardOpenOption.APPEND);
+            try (BookingJournal journal = BookingJournal.open(path,
+                BookingJournal.Durability.ASYNC)) {
+                assertEquals(size, Files.size(path));
+                DeliveryService ds = new DeliveryService(calendar, journal);
+                assertEquals(13, ds.countDeliveries());
+                assertEquals(11, ds.countDeliveries(LocalDate.of(2020, 5, 12)));
+                assertEquals(schedule, ds.getSchedule());
+                assertTrue(ds.addSlot(LocalDateTime.of(2020, 5, 15, 11, 0)));
+            }
+            DeliveryService ds;
+            try (BookingJournal journal = BookingJournal.open(path,
+                BookingJournal.Durability.ASYNC)) {
+                ds = new DeliveryService(calendar, journal);
+                assertEquals(14, ds.countDeliveries());
+            }
+            // A booking the journal fails to record is released
+            try {
+                ds.scheduleDelivery(Arrays.asList(LocalDate.of(2020, 5, 14)),
+                Product.create("P3"));
+                fail();
+            } catch (IllegalStateException e) {
+                assertEquals(14, ds.countDeliveries());
+            }
+            try (BookingJournal journal = BookingJournal.open(path,
+                BookingJournal.Durability.ASYNC)) {
+                assertEquals(14, new DeliveryService(calendar, journal)
+                .countDeliveries());
+            }
+        } finally {
+            Files.delete(path);
+        }
+        // More records than the buffer holds wait for the writer
+        path = Files.createTempFile("bookings", ".journal");
+        try {
+            Product product = Product.create("P2");
+            List<LocalDate> possibleDays = App.possibleDays(product, calendar);
+            try (BookingJournal journal = BookingJournal.open(path,
+                BookingJournal.Durability.ASYNC)) {
+                DeliveryService ds = new DeliveryService(calendar, 64,
+                journal);
+                for (int i = 0; i < 2000; i++) {
+                    assertTrue(ds.scheduleDelivery(possibleDays, product));
+                }
+            }
+            try (BookingJournal journal = BookingJournal.open(path,
+                BookingJournal.Durability.ASYNC)) {
+                assertEquals(2000, new DeliveryService(calendar, 64, journal)
+                .countDeliveries());
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test public void testScheduleSnapshot() throws IOException {
+        DeliveryCalendar calendar = fixedCalendar("2020-05-11T10:00:00Z");
+        DeliveryService ds = new DeliveryService(calendar);
+        for (Product product : Arrays.asList(Product.create("P1"),
+            Product.create("P2"), Product.create("P3"))) {
+            for (int i = 0; i < 10; i++) {
+                ds.scheduleDelivery(App.possibleDays(product, calendar),
+                product);
+            }
+        }
+        assertTrue(ds.addSlot(LocalDateTime.of(2020, 12, 24, 19, 0)));
+        Path path = Files.createTempFile("schedule", ".snapshot");
+        try {
+            ds.writeSnapshot(path);
+            DeliveryService restored = DeliveryService.fromSnapshot(calendar,
+            path);
+            assertEquals(31, restored.countDeliveries());
+            assertEquals(ds.getSchedule(), restored.getSchedule());
+            for (int i = 0; i < DeliveryService.PERIOD_LENGTH; i++) {
+                LocalDate day = calendar.today().plusDays(i);
+                assertEquals(ds.countDeliveries(day),
+                restored.countDeliveries(day));
+            }
+            assertEquals(1, restored.countDeliveries(LocalDate.of(2020, 12,
+                24)));
+            // The days before the current day are not restored
+            DeliveryService later = DeliveryService.fromSnapshot(
+            fixedCalendar("2020-05-13T10:00:00Z"), path);
+            assertEquals(31 - ds.countDeliveries(LocalDate.of(2020, 5, 11))
+            - ds.countDeliveries(LocalDate.of(2020, 5, 12)),
+            later.countDeliveries());
+            assertTrue(later.countDeliveries() < 31);
+            byte[] bytes = Files.readAllBytes(path);
+            bytes[bytes.length - 1] ^= 1;
+            Files.write(path, bytes);
+            try {
+                DeliveryService.fromSnapshot(calendar, path);
+                fail();
+            } catch (IOException e) {
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test public void testDeliveryMetrics() throws JMException {
+        DeliveryService ds = new DeliveryService();
+        DeliveryMetrics metrics = ds.getMetrics();
+        Product product = Product.create("P1");
+        LocalDate day = LocalDate.now().plusDays(1);
+        for (int i = 0; i < MAX_DELIVERIES + 1; i++) {
+            ds.scheduleDelivery(Arrays.asList(day), product);
+        }
+        assertEquals(MAX_DELIVERIES, metrics.getScheduledProducts());
+        assertEquals(1, metrics.getUnscheduledProducts());
+        assertEquals(1.0, metrics.getMeanDaysProbed(), 0.0);
+        assertEquals(MAX_DELIVERIES, metrics.getDayOccupancy()[1]);
+        // One call in SAMPLING_RATE is timed
+        for (int i = 0; i < 100 * DeliveryMetrics.SAMPLING_RATE; i++) {
+            assertFalse(ds.nextSlot(day).isPresent());
+            ds.getSchedule();
+        }
+        assertTrue(metrics.getNextSlotCalls() > 0);
+        assertTrue(metrics.getNextSlotCalls()
+            < 100 * DeliveryMetrics.SAMPLING_RATE);
+        long scheduleCalls = metrics.getScheduleCalls();
+        assertTrue(scheduleCalls > 0);
+        assertTrue(metrics.getScheduleP99() > 0);
+        ObjectName name = new ObjectName(
+            "mathem.challenge:type=DeliveryService,name=\"test\"");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        metrics.register("test");
+        try {
+            assertEquals((long) MAX_DELIVERIES, server.getAttribute(name,
+                "ScheduledProducts"));
+            server.setAttribute(name, new Attribute("Enabled", false));
+            assertFalse(metrics.isEnabled());
+            // The metrics of the other services stay enabled
+            assertTrue(new DeliveryService().getMetrics().isEnabled());
+            ds.scheduleDelivery(Arrays.asList(day), product);
+            for (int i = 0; i < 100 * DeliveryMetrics.SAMPLING_RATE; i++) {
+                ds.getSchedule();
+            }
+            assertEquals(1, metrics.getUnscheduledProducts());
+            assertEquals(scheduleCalls, metrics.getScheduleCalls());
+        } finally {
+            metrics.setEnabled(true);
+            metrics.unregister();
+        }
+        assertFalse(server.isRegistered(name));
+        metrics.reset();
+        assertEquals(0, metrics.getScheduleCalls());
+        // Latencies are recorded to within 1/16th of their value
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 1; nanos <= 100000; nanos++) {
+            histogram.record(nanos);
+        }
+        assertEquals(100000, histogram.count());
+        assertEquals(50000, histogram.percentile(50), 50000 / 16);
+        assertEquals(99000, histogram.percentile(99), 99000 / 16);
+        assertEquals(1, histogram.percentile(0));
+    }
+
+    @Test public void testDeliveryMetricsReadOnly() {
+        MutableClock clock = new MutableClock(
+            Instant.parse("2020-05-11T10:00:00Z"), STOCKHOLM);
+        DeliveryCalendar calendar = new DeliveryCalendar(clock);
+        DeliveryService ds = new DeliveryService(calendar);
+        DeliveryMetrics metrics = ds.getMetrics();
+        Product product = Product.create("P1");
+        LocalDate day = LocalDate.of(2020, 5, 12);
+        assertTrue(ds.scheduleDelivery(Arrays.asList(day), product));
+        SlotHold hold = ds.holdDelivery(Arrays.asList(day), product,
+        Duration.ofMinutes(1)).get();
+        // Reading the metrics neither expires the holds nor retires the
+        // past days
+        clock.plus(Duration.ofMinutes(2));
+        assertEquals(1, metrics.getDeliveries());
+        assertEquals(1, metrics.getDayOccupancy()[1]);
+        assertTrue(ds.release(hold));
+        clock.plusDays(2);
+        assertEquals(0, metrics.getDeliveries());
+        assertEquals(0, metrics.getDayOccupancy()[0]);
+        assertEquals(0, ds.countDeliveries());
+    }
+
+    @Test public void testAssignDeliveries() {
+        // Monday, the first bookable days are Tuesday and Wednesday
+        DeliveryCalendar calendar = fixedCalendar("2020-05-11T10:00:00Z");
+        DeliveryService greedy = new DeliveryService(calendar);
+        DeliveryService assigned = new DeliveryService(calendar);
+        for (int i = 3; i < DeliveryService.PERIOD_LENGTH; i++) {
+            for (int hour = FIRST_DELIVERY_SLOT; hour <= LAST_DELIVERY_SLOT;
+                hour++) {
+                LocalDateTime slot = calendar.today().plusDays(i)
+                .atTime(hour, 0);
+                greedy.addSlot(slot);
+                assigned.addSlot(slot);
+            }
+        }
+        List<Product> products = new ArrayList<Product>();
+        for (int i = 0; i < MAX_DELIVERIES; i++) {
+            products.add(Product.create("F" + i));
+        }
+        for (int i = 0; i < MAX_DELIVERIES; i++) {
+            products.add(Product.create("T" + i, ProductType.NORMAL,
+                EnumSet.of(DayOfWeek.TUESDAY), 0));
+        }
+        boolean[] greedyScheduled = greedy.scheduleDeliveries(products);
+        boolean[] scheduled = assigned.assignDeliveries(products);
+        for (int i = 0; i < MAX_DELIVERIES; i++) {
+            assertTrue(greedyScheduled[i]);
+            assertFalse(greedyScheduled[MAX_DELIVERIES + i]);
+            assertTrue(scheduled[i]);
+            assertTrue(scheduled[MAX_DELIVERIES + i]);
+        }
+        assertEquals(MAX_DELIVERIES, assigned.countDeliveries(
+            LocalDate.of(2020, 5, 12)));
+        assertEquals(MAX_DELIVERIES, assigned.countDeliveries(
+            LocalDate.of(2020, 5, 13)));
+        // Never fewer deliveries than the greedy scheduling
+        for (int seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            products.clear();
+            for (int i = 0; i < 200; i++) {
+                EnumSet<DayOfWeek> days = EnumSet.noneOf(DayOfWeek.class);
+                days.add(DayOfWeek.of(1 + random.nextInt(7)));
+                days.add(DayOfWeek.of(1 + random.nextInt(7)));
+                products.add(Product.create("P" + i, ProductType.NORMAL,
+                    days, random.nextInt(DeliveryService.PERIOD_LENGTH)));
+            }
+            greedy = new DeliveryService(calendar);
+            assigned = new DeliveryService(calendar);
+            greedy.scheduleDeliveries(products);
+            assigned.assignDeliveries(products);
+            assertTrue(assigned.countDeliveries()
+                >= greedy.countDeliveries());
+        }
+    }
+
+    @Test public void testSlotCapacity() throws InterruptedException,
+    IOException {
+        DeliveryCalendar calendar = fixedCalendar("2020-05-11T10:00:00Z");
+        DeliveryService ds = new DeliveryService(calendar, 3);
+        assertEquals(3, ds.getSlotCapacity());
+        LocalDate day = LocalDate.of(2020, 5, 12);
+        LocalDateTime first = day.atTime(FIRST_DELIVERY_SLOT, 0);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(createDeliverySlot(ds, first),
+            ((Optional<?>) ds.nextSlot(day)).get());
+            assertTrue(ds.addSlot(first));
+        }
+        assertFalse(ds.addSlot(first));
+        assertEquals(createDeliverySlot(ds, first.plusHours(1)),
+        ((Optional<?>) ds.nextSlot(day)).get());
+        assertEquals(3, ds.countDeliveries(day));
+        assertEquals(3, ds.getSchedule().size());
+        assertEquals(1, new HashSet<Pair<OffsetDateTime,Boolean>>(
+            ds.getSchedule()).size());
+        assertTrue(ds.scheduleDelivery(Arrays.asList(day),
+            Product.create("P1")));
+        assertEquals(4, ds.countDeliveries(day));
+        Path path = Files.createTempFile("schedule", ".snapshot");
+        try {
+            ds.writeSnapshot(path);
+            DeliveryService restored = DeliveryService.fromSnapshot(calendar,
+            path);
+            assertEquals(3, restored.getSlotCapacity());
+            assertEquals(ds.getSchedule(), restored.getSchedule());
+        } finally {
+            Files.delete(path);
+        }
+        try {
+            new DeliveryService(calendar, 65);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        // Hundreds of checkouts competing for the seats of one slot
+        DeliveryService popular = new DeliveryService(calendar, 64);
+        int threads = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger booked = new AtomicInteger();
+        for (int t = 0; t < threads; t++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (popular.addSlot(first))
+                    booked.incrementAndGet();
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals(64, booked.get());
+        assertEquals(64, popular.countDeliveries());
+        assertEquals(createDeliverySlot(popular, first.plusHours(1)),
+        ((Optional<?>) popular.nextSlot(day)).get());
+    }
+
+    /**
+     * A Clock whose instant is moved by the tests
+     */
+    private static final class MutableClock extends Clock {
+        private final ZoneId zone;
+        private volatile Instant instant;
+
+        private MutableClock(Instant instant, ZoneId zone) {
+            this.instant = instant;
+            this.zone = zone;
+        }
+
+        private void plusDays(long days) {
+            instant = instant.plus(days, ChronoUnit.DAYS);
+        }
+
+        private void plus(Duration duration) {
+            instant = instant.plus(duration);
+        }
+
+        @Override public ZoneId getZone() {
+            return zone;
+        }
+
+        @Override public Clock withZone(ZoneId zone) {
+            return new MutableClock(instant, zone);
+        }
+
+        @Override public Instant instant() {
+            return instant;
+        }
+    }
+
+    @Test public void testRollingHorizon() {
+        MutableClock clock = new MutableClock(
+            Instant.parse("2020-05-11T10:00:00Z"), STOCKHOLM);
+        DeliveryCalendar calendar = new DeliveryCalendar(clock);
+        DeliveryService ds = new DeliveryService(calendar);
+        LocalDate today = LocalDate.of(2020, 5, 11);
+        LocalDate lastDay = today.plusDays(DeliveryService.CAPACITY_DAYS - 1);
+        for (int i = FIRST_DELIVERY_SLOT; i <= LAST_DELIVERY_SLOT; i++) {
+            assertTrue(ds.addSlot(today.atTime(i, 0)));
+        }
+        assertTrue(ds.addSlot(today.plusDays(1).atTime(FIRST_DELIVERY_SLOT,
+            0)));
+        assertTrue(ds.addSlot(lastDay.atTime(FIRST_DELIVERY_SLOT, 0)));
+        // Kept aside until its day opens
+        assertTrue(ds.addSlot(lastDay.plusDays(1).atTime(FIRST_DELIVERY_SLOT,
+            0)));
+        assertEquals(MAX_DELIVERIES + 3, ds.countDeliveries());
+        assertEquals(MAX_DELIVERIES + 3, ds.getSchedule().size());
+        // At midnight the first day is retired and a new last day opens,
+        // taking the slot kept aside
+        clock.plusDays(1);
+        assertEquals(3, ds.countDeliveries());
+        assertEquals(0, ds.countDeliveries(today));
+        // A slot of a past day is accepted but not counted
+        assertTrue(ds.addSlot(today.atTime(LAST_DELIVERY_SLOT, 0)));
+        assertEquals(3, ds.getSchedule().size());
+        assertFalse(ds.addSlot(lastDay.plusDays(1).atTime(FIRST_DELIVERY_SLOT,
+            0)));
+        // The day opened next takes the place of the full day retired
+        clock.plusDays(1);
+        LocalDate opened = lastDay.plusDays(2);
+        assertEquals(0, ds.countDeliveries(opened));
+        assertEquals(createDeliverySlot(ds, opened.atTime(FIRST_DELIVERY_SLOT,
+            0)), ((Optional<?>) ds.nextSlot(opened)).get());
+        assertTrue(ds.addSlot(opened.atTime(FIRST_DELIVERY_SLOT, 0)));
+        assertEquals(3, ds.countDeliveries());
+        assertEquals(3, ds.getSchedule().size());
+        // After a long pause every day held is retired
+        clock.plusDays(3 * DeliveryService.CAPACITY_DAYS);
+        assertEquals(0, ds.countDeliveries());
+        assertTrue(ds.getSchedule().isEmpty());
+        assertTrue(ds.scheduleDelivery(Arrays.asList(calendar.today()),
+            Product.create("P1")));
+        assertEquals(1, ds.countDeliveries());
+    }
+
+    @Test public void testSlotHolds() throws InterruptedException {
+        MutableClock clock = new MutableClock(
+            Instant.parse("2020-05-11T10:00:00Z"), STOCKHOLM);
+        DeliveryCalendar calendar = new DeliveryCalendar(clock);
+        DeliveryService ds = new DeliveryService(calendar);
+        LocalDate day = LocalDate.of(2020, 5, 12);
+        List<LocalDate> days = Arrays.asList(day);
+        Product product = Product.create("P1");
+        Duration ttl = Duration.ofMinutes(10);
+        SlotHold confirmed = ds.holdDelivery(days, product, ttl).get();
+        assertTrue(confirmed.isHeld());
+        assertEquals(product.getProductId(), confirmed.getProductId());
+        assertEquals("2020-05-12T07:00Z", confirmed.getDeliveryDate());
+        // A held seat is neither free nor a delivery
+        assertEquals(createDeliverySlot(ds, day.atTime(FIRST_DELIVERY_SLOT
+            + 1, 0)), ((Optional<?>) ds.nextSlot(day)).get());
+        assertEquals(0, ds.countDeliveries(day));
+        assertTrue(ds.getSchedule().isEmpty());
+        assertTrue(ds.confirm(confirmed));
+        assertFalse(confirmed.isHeld());
+        assertFalse(ds.confirm(confirmed));
+        assertFalse(ds.release(confirmed));
+        assertEquals(1, ds.countDeliveries(day));
+        assertEquals(1, ds.getSchedule().size());
+        SlotHold released = ds.holdDelivery(days, product, ttl).get();
+        assertTrue(ds.release(released));
+        assertFalse(ds.confirm(released));
+        assertEquals(createDeliverySlot(ds, day.atTime(FIRST_DELIVERY_SLOT
+            + 1, 0)), ((Optional<?>) ds.nextSlot(day)).get());
+        // The holds left expire with their TTL
+        List<SlotHold> abandoned = new ArrayList<SlotHold>();
+        for (int i = 1; i < MAX_DELIVERIES; i++) {
+            abandoned.add(ds.holdDelivery(days, product, ttl).get());
+        }
+        assertFalse(ds.holdDelivery(days, product, ttl).isPresent());
+        assertFalse(((Optional<?>) ds.nextSlot(day)).isPresent());
+        clock.plus(Duration.ofMinutes(9));
+        assertFalse(((Optional<?>) ds.nextSlot(day)).isPresent());
+        clock.plus(Duration.ofMinutes(1).plusSeconds(2));
+        assertEquals(createDeliverySlot(ds, day.atTime(FIRST_DELIVERY_SLOT
+            + 1, 0)), ((Optional<?>) ds.nextSlot(day)).get());
+        for (SlotHold hold : abandoned) {
+            assertFalse(hold.isHeld());
+            assertFalse(ds.confirm(hold));
+        }
+        assertEquals(1, ds.countDeliveries(day));
+        // A hold cannot be confirmed after its expiry even before the wheel
+        // releases it
+        SlotHold late = ds.holdDelivery(days, product, ttl).get();
+        clock.plus(ttl);
+        assertFalse(ds.confirm(late));
+        assertEquals(createDeliverySlot(ds, day.atTime(FIRST_DELIVERY_SLOT
+            + 1, 0)), ((Optional<?>) ds.nextSlot(day)).get());
+        try {
+            new DeliveryService(calendar).release(ds.holdDelivery(days,
+                product, ttl).get());
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        // Holds being taken and released are never seen as deliveries
+        DeliveryService busy = new DeliveryService(calendar, 8);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        AtomicInteger holdsLeft = new AtomicInteger(20000);
+        for (int t = 0; t < 4; t++) {
+            executor.execute(() -> {
+                while (holdsLeft.decrementAndGet() >= 0) {
+                    busy.release(busy.holdDelivery(days, product, ttl).get());
+                }
+            });
+        }
+        executor.shutdown();
+        while (!executor.isTerminated()) {
+            assertEquals(0, busy.countDeliveries(day));
+            assertTrue(busy.getSchedule().isEmpty());
+        }
+    }
+
+    @Test public void testCancelAndReschedule() throws IOException {
+        DeliveryCalendar calendar = fixedCalendar("2020-05-11T10:00:00Z");
+        LocalDate day = LocalDate.of(2020, 5, 12);
+        LocalDate later = LocalDate.of(2020, 5, 13);
+        LocalDate full = LocalDate.of(2020, 5, 14);
+        Product p1 = Product.create("P1");
+        Product p2 = Product.create("P2");
+        Path path = Files.createTempFile("bookings", ".journal");
+        try {
+            try (BookingJournal journal = BookingJournal.open(path,
+                BookingJournal.Durability.SYNC)) {
+                DeliveryService ds = new DeliveryService(calendar, journal);
+                assertFalse(ds.cancel(p1.getProductId()));
+                assertTrue(ds.scheduleDelivery(Arrays.asList(day), p1));
+                assertTrue(ds.scheduleDelivery(Arrays.asList(day), p1));
+                assertTrue(ds.scheduleDelivery(Arrays.asList(day), p2));
+                // The most recent delivery is cancelled and its slot freed
+                assertTrue(ds.cancel(p1.getProductId()));
+                assertEquals(2, ds.countDeliveries(day));
+                assertEquals(createDeliverySlot(ds, day.atTime(
+                    FIRST_DELIVERY_SLOT + 1, 0)),
+                ((Optional<?>) ds.nextSlot(day)).get());
+                assertTrue(ds.cancel(p1.getProductId()));
+                assertFalse(ds.cancel(p1.getProductId()));
+                assertEquals(createDeliverySlot(ds, day.atTime(
+                    FIRST_DELIVERY_SLOT, 0)),
+                ((Optional<?>) ds.nextSlot(day)).get());
+                assertTrue(ds.reschedule(p2.getProductId(),
+                    Arrays.asList(later)));
+                assertEquals(0, ds.countDeliveries(day));
+                assertEquals(1, ds.countDeliveries(later));
+                // A delivery stays where it is when no possible day is free
+                for (int i = FIRST_DELIVERY_SLOT; i <= LAST_DELIVERY_SLOT;
+                    i++) {
+                    assertTrue(ds.addSlot(full.atTime(i, 0)));
+                }
+                assertFalse(ds.reschedule(p2.getProductId(),
+                    Arrays.asList(full)));
+                assertEquals(1, ds.countDeliveries(later));
+                assertTrue(ds.scheduleDelivery(Arrays.asList(day), p1));
+                assertEquals(MAX_DELIVERIES + 2, ds.countDeliveries());
+            }
+            DeliveryService ds;
+            try (BookingJournal journal = BookingJournal.open(path,
+                BookingJournal.Durability.ASYNC)) {
+                ds = new DeliveryService(calendar, journal);
+                assertEquals(MAX_DELIVERIES + 2, ds.countDeliveries());
+                assertEquals(1, ds.countDeliveries(day));
+                assertEquals(1, ds.countDeliveries(later));
+                // The replayed cancellations leave no booking in the index,
+                // P1 on the first day and P2 on the later one are left
+                assertEquals(2, index(ds).size());
+                assertTrue(ds.cancel(p2.getProductId()));
+                assertFalse(ds.cancel(p2.getProductId()));
+                assertEquals(0, ds.countDeliveries(later));
+                // More records than the buffer holds wait for the writer
+                Product p3 = Product.create("P3");
+                for (int i = 0; i < 2000; i++) {
+                    assertTrue(ds.scheduleDelivery(Arrays.asList(later), p3));
+                    assertTrue(ds.cancel(p3.getProductId()));
+                }
+                assertEquals(0, ds.countDeliveries(later));
+            }
+            // A cancellation the journal fails to record is not made
+            try {
+                ds.cancel(p1.getProductId());
+                fail();
+            } catch (IllegalStateException e) {
+                assertEquals(1, ds.countDeliveries(day));
+                assertEquals(1, index(ds).size());
+            }
+            try (BookingJournal journal = BookingJournal.open(path,
+                BookingJournal.Durability.ASYNC)) {
+                ds = new DeliveryService(calendar, journal);
+                assertEquals(MAX_DELIVERIES + 1, ds.countDeliveries());
+                assertEquals(1, index(ds).size());
+            }
+        } finally {
+            Files.delete(path);
+        }
+        // The index only holds the products with bookings in the store, the
+        // most recent booking first whatever its day
+        BookingIndex index = new BookingIndex(DeliveryService.CAPACITY_DAYS);
+        UUID productId = p1.getProductId();
+        index.add(productId, BookingIndex.location(10, 0, 0), 1);
+        index.add(productId, BookingIndex.location(12, 1, 2), 2);
+        index.add(productId, BookingIndex.location(11, 1, 2), 3);
+        index.add(p2.getProductId(), BookingIndex.location(10, 0, 1), 4);
+        index.retire(10, 11);
+        assertEquals(2, index.size());
+        assertEquals(BookingIndex.location(11, 1, 2),
+        index.remove(productId, 11, 12));
+        assertEquals(1, index.size());
+        assertTrue(index.remove(productId, BookingIndex.location(12, 1, 2)));
+        assertEquals(0, index.size());
+        assertEquals(BookingIndex.NO_BOOKING, index.remove(productId, 11, 12));
+    }
+
+    private static BookingIndex index(DeliveryService ds) {
+        try {
+            Field field = DeliveryService.class.getDeclaredField("index");
+            field.setAccessible(true);
+            return (BookingIndex) field.get(ds);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Test public void testAvailabilitySnapshot() {
+        MutableClock clock = new MutableClock(
+            Instant.parse("2020-05-11T10:00:00Z"), STOCKHOLM);
+        DeliveryCalendar calendar = new DeliveryCalendar(clock);
+        DeliveryService ds = new DeliveryService(calendar);
+        LocalDate day = LocalDate.of(2020, 5, 12);
+        Product product = Product.create("P1");
+        List<LocalDate> possibleDays = App.possibleDays(product, calendar);
+        assertEquals(possibleDays, ds.availableDays(product));
+        // The snapshot is only replaced when the seats change
+        AvailabilitySnapshot snapshot = ds.availability();
+        assertSame(snapshot, ds.availability());
+        assertTrue(snapshot.isGreen(1));
+        assertFalse(snapshot.isGreen(0));
+        for (int i = FIRST_DELIVERY_SLOT; i < LAST_DELIVERY_SLOT; i++) {
+            assertTrue(ds.addSlot(day.atTime(i, 0)));
+        }
+        assertNotSame(snapshot, ds.availability());
+        assertEquals(1 << MAX_DELIVERIES - 1, ds.availability().freeSlots(1));
+        assertEquals(possibleDays, ds.availableDays(product));
+        // A held seat is not available until released
+        SlotHold hold = ds.holdDelivery(Arrays.asList(day), product,
+        Duration.ofMinutes(10)).get();
+        assertEquals(0, ds.availability().freeSlots(1));
+        assertEquals(possibleDays.subList(1, possibleDays.size()),
+        ds.availableDays(product));
+        assertTrue(ds.release(hold));
+        assertEquals(possibleDays, ds.availableDays(product));
+        // The queries leave the expiry of the holds to the booking calls
+        ds.holdDelivery(Arrays.asList(day), product, Duration.ofMinutes(1));
+        clock.plus(Duration.ofMinutes(2));
+        assertEquals(0, ds.availability().freeSlots(1));
+        ds.countDeliveries();
+        assertEquals(1 << MAX_DELIVERIES - 1, ds.availability().freeSlots(1));
+        // The snapshot follows the current day
+        clock.plusDays(1);
+        assertEquals(LocalDate.of(2020, 5, 12), ds.availability().today());
+        assertEquals(App.possibleDays(product, calendar),
+        ds.availableDays(product));
+    }
+
+    @Test public void testBatchingScheduler() throws Exception {
+        DeliveryCalendar calendar = fixedCalendar("2020-05-11T10:00:00Z");
+        DeliveryService expected = new DeliveryService(calendar);
+        DeliveryService ds = new DeliveryService(calendar);
+        Product invalid = Product.create("P0", ProductType.TEMPORARY,
+        EnumSet.of(DayOfWeek.SATURDAY), 0);
+        List<CompletableFuture<boolean[]>> futures =
+        new ArrayList<CompletableFuture<boolean[]>>();
+        List<List<Product>> carts = new ArrayList<List<Product>>();
+        try (BatchingScheduler scheduler = new BatchingScheduler(ds, 8,
+            Duration.ofMillis(5))) {
+            // More products than seats, carts are batched in submit order
+            for (int i = 0; i < 100; i++) {
+                List<Product> cart = Arrays.asList(Product.create("P" + i),
+                invalid, Product.create("Q" + i, ProductType.NORMAL,
+                    EnumSet.of(DayOfWeek.of(1 + i % 7)), i % 10));
+                carts.add(cart);
+                futures.add(scheduler.scheduleDeliveries(cart));
+            }
+        }
+        for (int i = 0; i < carts.size(); i++) {
+            assertTrue(futures.get(i).isDone());
+            boolean[] scheduled = expected.scheduleDeliveries(Arrays.asList(
+                carts.get(i).get(0), carts.get(i).get(2)));
+            assertTrue(Arrays.equals(new boolean[] { scheduled[0], false,
+                scheduled[1] }, futures.get(i).get()));
+        }
+        assertEquals(expected.countDeliveries(), ds.countDeliveries());
+        assertEquals(expected.getSchedule(), ds.getSchedule());
+        BatchingScheduler closed = new BatchingScheduler(ds, 1,
+        Duration.ZERO);
+        closed.close();
+        try {
+            closed.scheduleDeliveries(carts.get(0)).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        // The carts submitted while closing are scheduled or rejected
+        BatchingScheduler closing = new BatchingScheduler(ds, 1,
+        Duration.ZERO);
+        ExecutorService submitters = Executors.newFixedThreadPool(4);
+        List<Future<CompletableFuture<boolean[]>>> submitted =
+        new ArrayList<Future<CompletableFuture<boolean[]>>>();
+        for (int i = 0; i < 200; i++) {
+            List<Product> cart = carts.get(i % carts.size());
+            submitted.add(submitters.submit(() ->
+                closing.scheduleDeliveries(cart)));
+        }
+        closing.close();
+        submitters.shutdown();
+        for (Future<CompletableFuture<boolean[]>> future : submitted) {
+            assertTrue(future.get().isDone());
+        }
+        // A cart failing with any Throwable fails alone, the carts of its
+        // batch keep their bookings
+        Product poison = Product.create("X");
+        DeliveryService failing = new DeliveryService(calendar) {
+            @Override public boolean[] scheduleDeliveries(
+                Collection<Product> products) {
+                if (products.contains(poison))
+                    throw new AssertionError(poison);
+                return super.scheduleDeliveries(products);
+            }
+        };
+        try (BatchingScheduler scheduler = new BatchingScheduler(failing, 8,
+            Duration.ofMillis(5))) {
+            CompletableFuture<boolean[]> before =
+            scheduler.scheduleDeliveries(Arrays.asList(carts.get(0).get(0)));
+            CompletableFuture<boolean[]> failed =
+            scheduler.scheduleDeliveries(Arrays.asList(poison));
+            CompletableFuture<boolean[]> after =
+            scheduler.scheduleDeliveries(Arrays.asList(carts.get(1).get(0)));
+            assertTrue(before.get()[0]);
+            assertTrue(after.get()[0]);
+            try {
+                failed.get();
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof AssertionError);
+            }
+        }
+        assertEquals(2, failing.countDeliveries());
+    }
+
+    @Test public void testBookingFeed() throws IOException {
+        DeliveryCalendar calendar = fixedCalendar("2020-05-11T10:00:00Z");
+        DeliveryService ds = new DeliveryService(calendar);
+        LocalDate day = LocalDate.of(2020, 5, 12);
+        Product product = Product.create("P1");
+        List<String> events = Collections.synchronizedList(
+            new ArrayList<String>());
+        Path path = Files.createTempFile("bookings", ".jsonl");
+        try {
+            try (BookingFileSink sink = new BookingFileSink(path);
+                BookingFeed feed = new BookingFeed(4,
+                    BookingFeed.OverflowPolicy.BLOCK, (event, endOfBatch) ->
+                    events.add(event.toString()), sink)) {
+                assertTrue(ds.scheduleDelivery(Arrays.asList(day), product));
+                ds.setBookingFeed(feed);
+                // More events than entries in the ring
+                for (int i = 0; i < 5; i++) {
+                    assertTrue(ds.scheduleDelivery(Arrays.asList(day),
+                        product));
+                }
+                assertTrue(ds.cancel(product.getProductId()));
+                assertTrue(ds.addSlot(day.atTime(LAST_DELIVERY_SLOT, 0)));
+                ds.setBookingFeed(null);
+                assertTrue(ds.cancel(product.getProductId()));
+            }
+            assertEquals(7, events.size());
+            assertEquals("0 BOOKED 2020-05-12T10:00 "
+            + product.getProductId(), events.get(0));
+            assertEquals("5 CANCELLED 2020-05-12T14:00 "
+            + product.getProductId(), events.get(5));
+            assertEquals("6 BOOKED 2020-05-12T19:00 null", events.get(6));
+            List<String> lines = Files.readAllLines(path);
+            assertEquals(7, lines.size());
+            assertEquals("{\"sequence\":6,\"type\":\"BOOKED\","
+            + "\"deliveryDay\":\"2020-05-12\",\"hour\":19}", lines.get(6));
+        } finally {
+            Files.delete(path);
+        }
+        // A full ring drops the events with the DROP policy
+        CountDownLatch release = new CountDownLatch(1);
+        try (BookingFeed feed = new BookingFeed(2,
+            BookingFeed.OverflowPolicy.DROP, (event, endOfBatch) -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            })) {
+            int published = 0;
+            for (int i = 0; i < 5; i++) {
+                if (feed.publish(BookingEvent.Type.BOOKED, day.toEpochDay(),
+                    0, 1L, 2L))
+                    published++;
+            }
+            // The handler blocks on the first event, the ring stays full
+            assertEquals(2, published);
+            assertEquals(3, feed.getDropped());
+            release.countDown();
+        }
+        try {
+            new BookingFeed(3, BookingFeed.OverflowPolicy.BLOCK);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        // A seat freed and booked again is published cancelled first, so
+        // the occupancy rebuilt from the feed never exceeds the capacity
+        DeliveryService busy = new DeliveryService(calendar);
+        int[] occupancy = new int[24];
+        AtomicInteger overbooked = new AtomicInteger();
+        try (BookingFeed feed = new BookingFeed(1024,
+            BookingFeed.OverflowPolicy.BLOCK, (event, endOfBatch) -> {
+                int hour = event.getHour();
+                if (event.getType() == BookingEvent.Type.CANCELLED)
+                    occupancy[hour]--;
+                else if (++occupancy[hour] > 1)
+                    overbooked.incrementAndGet();
+            })) {
+            busy.setBookingFeed(feed);
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            for (int t = 0; t < 4; t++) {
+                Product p = Product.create("P" + t);
+                executor.execute(() -> {
+                    for (int i = 0; i < 5000; i++) {
+                        busy.scheduleDelivery(Arrays.asList(day), p);
+                        busy.cancel(p.getProductId());
+                    }
+                });
+            }
+            executor.shutdown();
+            try {
+                assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+        assertEquals(0, overbooked.get());
+    }
+}